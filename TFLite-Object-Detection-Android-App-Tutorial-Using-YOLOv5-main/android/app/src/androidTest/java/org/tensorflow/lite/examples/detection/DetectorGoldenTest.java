@@ -0,0 +1,172 @@
+package org.tensorflow.lite.examples.detection;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.google.common.truth.Expect;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.detection.env.Utils;
+import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.ModelDescriptor;
+import org.tensorflow.lite.examples.detection.tflite.ModelManifest;
+import org.tensorflow.lite.examples.detection.tflite.YoloV5Classifier;
+
+/**
+ * Golden test: every detector in the model manifest, on CPU, must still find the same objects in
+ * the test images, read from the test assets or else the app assets.
+ *
+ * <p>Goldens live in the test assets as {@code goldens/<model>/<image>.txt}, in input pixels of
+ * the scaled image. For a model and image without a golden, the current results are written to
+ * the app's external files directory under {@code goldens/}, to be reviewed on a reference device
+ * and copied into {@code src/androidTest/assets/goldens}; until then the test fails.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorGoldenTest {
+  private static final String TAG = "DetectorGoldenTest";
+  private static final String[] IMAGES = {"test.jpg", "kite.jpg"};
+
+  @Rule public final Expect expect = Expect.create();
+
+  @Test
+  public void detectionResultsShouldNotChange() throws Exception {
+    final Context target = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    final Context test = InstrumentationRegistry.getInstrumentation().getContext();
+    final AssetManager goldens = test.getAssets();
+    final List<String> missing = new ArrayList<>();
+
+    final List<String> models =
+        ModelManifest.get(target.getAssets()).getModelFiles(ModelDescriptor.ROLE_DETECTOR);
+    assumeTrue("No detector model bundled in this build", !models.isEmpty());
+    for (final String model : models) {
+      final YoloV5Classifier detector = DetectorFactory.getDetector(target.getAssets(), model);
+      try {
+        DetectorFactory.applyBackend(detector, DetectorFactory.DEVICE_CPU, 1);
+        for (final String image : IMAGES) {
+          final Bitmap source = loadImage(test, target, image);
+          assertWithMessage("Cannot read %s from the test or app assets", image).that(source).isNotNull();
+          final List<Recognition> results =
+              detector.recognizeImage(Utils.processBitmap(source, detector.getInputSize()));
+          final String golden = "goldens/" + model + "/" + image + ".txt";
+          final List<Recognition> expected = loadRecognitions(goldens, golden);
+          if (expected == null) {
+            missing.add(writeCandidate(target, golden, results).getPath());
+            continue;
+          }
+          check(model + " on " + image, expected, results);
+        }
+      } finally {
+        detector.close();
+      }
+    }
+    if (!missing.isEmpty()) {
+      Log.i(TAG, "No goldens yet, wrote the current results to " + missing);
+      expect.withMessage("No goldens checked in for %s; review them and copy them into "
+          + "src/androidTest/assets/goldens", missing).fail();
+    }
+  }
+
+  // kite.jpg only ships with the tests; test.jpg ships with the app.
+  private static Bitmap loadImage(final Context test, final Context target, final String image) {
+    final Bitmap bitmap = Utils.getBitmapFromAsset(test, image);
+    return bitmap != null ? bitmap : Utils.getBitmapFromAsset(target, image);
+  }
+
+  // Each expected object must be found once, and nothing else.
+  private void check(final String name, final List<Recognition> expected, final List<Recognition> results) {
+    expect.withMessage("%s: detections %s", name, results).that(results).hasSize(expected.size());
+    final boolean[] used = new boolean[results.size()];
+    for (final Recognition target : expected) {
+      boolean matched = false;
+      for (int i = 0; i < results.size() && !matched; ++i) {
+        final Recognition item = results.get(i);
+        matched = !used[i]
+            && item.getTitle().equals(target.getTitle())
+            && matchBoundingBoxes(item.getLocation(), target.getLocation())
+            && matchConfidence(item.getConfidence(), target.getConfidence());
+        used[i] = matched;
+      }
+      expect.withMessage("%s: %s in %s", name, target, results).that(matched).isTrue();
+    }
+  }
+
+  // Confidence tolerance: absolute 1%
+  private static boolean matchConfidence(float a, float b) {
+    return abs(a - b) < 0.01;
+  }
+
+  // Bounding Box tolerance: overlapped area > 95% of each one
+  private static boolean matchBoundingBoxes(RectF a, RectF b) {
+    float areaA = a.width() * a.height();
+    float areaB = b.width() * b.height();
+    RectF overlapped =
+        new RectF(
+            max(a.left, b.left), max(a.top, b.top), min(a.right, b.right), min(a.bottom, b.bottom));
+    float overlappedArea = max(0, overlapped.width()) * max(0, overlapped.height());
+    return overlappedArea > 0.95 * areaA && overlappedArea > 0.95 * areaB;
+  }
+
+  // The format of result, one detection per line, spaces in the category replaced by '_':
+  // category bbox.left bbox.top bbox.right bbox.bottom confidence
+  // Example:
+  // kite 99 25 130 75 0.91
+  // Returns null if the golden does not exist.
+  private static List<Recognition> loadRecognitions(AssetManager assets, String fileName) {
+    final InputStream inputStream;
+    try {
+      inputStream = assets.open(fileName);
+    } catch (IOException e) {
+      return null;
+    }
+    Scanner scanner = new Scanner(inputStream).useLocale(Locale.US);
+    List<Recognition> result = new ArrayList<>();
+    while (scanner.hasNext()) {
+      String category = scanner.next().replace('_', ' ');
+      float left = scanner.nextFloat();
+      float top = scanner.nextFloat();
+      float right = scanner.nextFloat();
+      float bottom = scanner.nextFloat();
+      float confidence = scanner.nextFloat();
+      result.add(new Recognition(null, category, confidence, new RectF(left, top, right, bottom)));
+    }
+    scanner.close();
+    return result;
+  }
+
+  private static File writeCandidate(Context context, String golden, List<Recognition> results)
+      throws IOException {
+    final File file = new File(context.getExternalFilesDir(null), golden);
+    assertWithMessage("Cannot create %s", file.getParentFile())
+        .that(file.getParentFile().isDirectory() || file.getParentFile().mkdirs()).isTrue();
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+      for (final Recognition result : results) {
+        final RectF box = result.getLocation();
+        out.printf(Locale.US, "%s %.1f %.1f %.1f %.1f %.3f%n", result.getTitle().replace(' ', '_'),
+            box.left, box.top, box.right, box.bottom, result.getConfidence());
+      }
+    }
+    return file;
+  }
+}
@@ -0,0 +1,152 @@
+package org.tensorflow.lite.examples.detection;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import com.google.common.truth.Expect;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
+import org.tensorflow.lite.examples.detection.env.Utils;
+import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.ModelDescriptor;
+import org.tensorflow.lite.examples.detection.tflite.ModelManifest;
+import org.tensorflow.lite.examples.detection.tflite.YoloV5Classifier;
+
+/**
+ * Latency and allocation budgets for every detector in the model manifest, on CPU.
+ *
+ * <p>Budgets come from {@code latency_budgets.json} in the test assets: the p95 per stage and
+ * model measured on a reference device, under {@code baselines}, which may be exceeded by
+ * {@code thresholdPercent} (or the {@code thresholdPercent} instrumentation argument) before the
+ * test fails. The measured values of every run are written to {@code latency.json} in the app's
+ * external files directory, in the same shape as {@code baselines}, to record or refresh them
+ * from. A model without a baseline fails the test.
+ *
+ * <p>Allocations are the bytes the whole process allocated per frame, so they are only checked
+ * from Android 6.0, which reports them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DetectorLatencyTest {
+  private static final String TAG = "DetectorLatencyTest";
+  private static final String IMAGE = "test.jpg";
+  private static final int WARMUP_RUNS = 5;
+  private static final int TIMED_RUNS = 50;
+
+  @Rule public final Expect expect = Expect.create();
+
+  @Test
+  public void latencyShouldStayWithinBudget() throws Exception {
+    final Context target = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    final JsonObject budgets = loadBudgets();
+    final Bundle arguments = InstrumentationRegistry.getArguments();
+    final double threshold = arguments.containsKey("thresholdPercent")
+        ? Double.parseDouble(arguments.getString("thresholdPercent"))
+        : budgets.get("thresholdPercent").getAsDouble();
+    final int threads = budgets.get("threads").getAsInt();
+    final Bitmap image = Utils.getBitmapFromAsset(target, IMAGE);
+    expect.withMessage("%s is not bundled", IMAGE).that(image).isNotNull();
+    if (image == null) {
+      return;
+    }
+
+    final PipelineMetrics metrics = PipelineMetrics.get();
+    final Map<String, Object> measured = new LinkedHashMap<>();
+    final List<String> models =
+        ModelManifest.get(target.getAssets()).getModelFiles(ModelDescriptor.ROLE_DETECTOR);
+    assumeTrue("No detector model bundled in this build", !models.isEmpty());
+    final JsonObject baselines = budgets.getAsJsonObject("baselines");
+    for (final String model : models) {
+      final YoloV5Classifier detector = DetectorFactory.getDetector(target.getAssets(), model);
+      final Map<String, Double> values = new LinkedHashMap<>();
+      try {
+        DetectorFactory.applyBackend(detector, DetectorFactory.DEVICE_CPU, threads);
+        final Bitmap input = Utils.processBitmap(image, detector.getInputSize());
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+          detector.recognizeImage(input);
+        }
+
+        detector.enableStatLogging(true);
+        metrics.reset();
+        final long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < TIMED_RUNS; ++i) {
+          detector.recognizeImage(input);
+        }
+        final long allocatedAfter = allocatedBytes();
+        detector.enableStatLogging(false);
+
+        values.put("inferenceP95Ms", (double) metrics.getHistogram(Stage.INFERENCE).getPercentileMs(95));
+        values.put("decodeP95Ms", (double) metrics.getHistogram(Stage.DECODE).getPercentileMs(95));
+        values.put("nmsP95Ms", (double) metrics.getHistogram(Stage.NMS).getPercentileMs(95));
+        if (allocatedBefore >= 0) {
+          values.put("allocatedBytesPerFrame", (double) (allocatedAfter - allocatedBefore) / TIMED_RUNS);
+        }
+      } finally {
+        detector.close();
+      }
+      measured.put(model, values);
+
+      if (!baselines.has(model)) {
+        expect.withMessage("No baseline for %s; record one on the reference device from latency.json",
+            model).fail();
+        continue;
+      }
+      final JsonObject budget = baselines.getAsJsonObject(model);
+      for (final Map.Entry<String, Double> value : values.entrySet()) {
+        if (!budget.has(value.getKey())) {
+          continue; // e.g. allocations, measured from Android 6.0 only
+        }
+        final double limit = budget.get(value.getKey()).getAsDouble() * (1 + threshold / 100);
+        expect.withMessage("%s %s, budget %s +%s%%", model, value.getKey(),
+            budget.get(value.getKey()), threshold)
+            .that(value.getValue()).isAtMost(limit);
+      }
+    }
+    writeMeasured(target, measured);
+  }
+
+  // Process-wide bytes allocated so far, or -1 where the runtime does not report it.
+  private static long allocatedBytes() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+      return -1;
+    }
+    return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+  }
+
+  private static JsonObject loadBudgets() throws Exception {
+    try (Reader reader = new InputStreamReader(InstrumentationRegistry.getInstrumentation()
+        .getContext().getAssets().open("latency_budgets.json"), "UTF-8")) {
+      return new JsonParser().parse(reader).getAsJsonObject();
+    }
+  }
+
+  private static void writeMeasured(final Context context, final Map<String, Object> measured)
+      throws Exception {
+    final File file = new File(context.getExternalFilesDir(null), "latency.json");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+      writer.write(new GsonBuilder().setPrettyPrinting().create().toJson(measured));
+    }
+    Log.i(TAG, "Latency written to " + file);
+  }
+}
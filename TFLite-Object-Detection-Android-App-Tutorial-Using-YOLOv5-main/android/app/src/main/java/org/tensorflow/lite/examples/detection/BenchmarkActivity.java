@@ -0,0 +1,102 @@
+package org.tensorflow.lite.examples.detection;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.TextView;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.Utils;
+import org.tensorflow.lite.examples.detection.tflite.DeviceBenchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 기기 프로파일링 화면. 버튼 한 번으로 assets 의 모든 모델을 CPU(1~8 쓰레드), GPU, NNAPI 에서 실행하고
+ * 결과를 앱 전용 저장소에 benchmark-<시각>.json / .csv 로 저장.
+ */
+public class BenchmarkActivity extends AppCompatActivity {
+    private static final Logger LOGGER = new Logger();
+
+    private TextView statusView, resultsView;
+    private Button runButton;
+    private Thread benchmarkThread;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_benchmark);
+
+        statusView = findViewById(R.id.benchmark_status);
+        resultsView = findViewById(R.id.benchmark_results);
+        runButton = findViewById(R.id.benchmark_run);
+        runButton.setOnClickListener(v -> startBenchmark());
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (benchmarkThread != null) {
+            // 진행 중인 구성이 끝나면 멈춤.
+            benchmarkThread.interrupt();
+        }
+        super.onDestroy();
+    }
+
+    private void startBenchmark() {
+        final Handler handler = new Handler();
+        runButton.setEnabled(false);
+        resultsView.setText("");
+        // 측정 중 화면이 꺼지면 기기 상태가 바뀌므로 켜둠.
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+
+        benchmarkThread = new Thread(() -> {
+            String status;
+            String summary = "";
+            try {
+                final List<DeviceBenchmark.Result> results =
+                        DeviceBenchmark.run(this, loadImages(), text -> handler.post(() -> statusView.setText(text)));
+                summary = DeviceBenchmark.summarize(results);
+                final File[] files = DeviceBenchmark.writeReports(
+                        this, results, getOutputDir(), "benchmark-" + System.currentTimeMillis());
+                status = (Thread.currentThread().isInterrupted() ? "Stopped, saved " : "Saved ")
+                        + files[0] + "\n" + files[1];
+            } catch (IOException | RuntimeException e) {
+                LOGGER.e(e, "Benchmark failed");
+                status = "Benchmark failed: " + e.getMessage();
+            }
+            final String statusText = status;
+            final String summaryText = summary;
+            handler.post(() -> {
+                getWindow().clearFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+                statusView.setText(statusText);
+                resultsView.setText(summaryText);
+                runButton.setEnabled(true);
+            });
+        }, "Benchmark");
+        benchmarkThread.start();
+    }
+
+    // assets 의 모든 jpg 를 고정 이미지 세트로 사용.
+    private List<Bitmap> loadImages() throws IOException {
+        final List<Bitmap> images = new ArrayList<>();
+        for (final String asset : getAssets().list("")) {
+            if (asset.endsWith(".jpg")) {
+                images.add(Utils.getBitmapFromAsset(this, asset));
+            }
+        }
+        return images;
+    }
+
+    // 앱 전용 외부 저장소. 없으면 내부 저장소.
+    private File getOutputDir() {
+        final File dir = getExternalFilesDir(null);
+        return dir != null ? dir : getFilesDir();
+    }
+}
@@ -34,6 +34,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.os.Trace;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
@@ -54,16 +55,28 @@ import android.widget.TextView;
 import android.widget.Toast;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import org.tensorflow.lite.examples.detection.core.FrameRecording;
+import org.tensorflow.lite.examples.detection.env.FrameRecorder;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
+import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.ModelDescriptor;
+import org.tensorflow.lite.examples.detection.tflite.ModelManifest;
 
 public abstract class CameraActivity extends AppCompatActivity
         implements OnImageAvailableListener,
         Camera.PreviewCallback,
+        FrameReplayFragment.FrameListener,
 //        CompoundButton.OnCheckedChangeListener,
         View.OnClickListener {
   private static final Logger LOGGER = new Logger();
@@ -71,7 +84,11 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
-  private static final String ASSET_PATH = "";
+
+  // 카메라 대신 녹화된 프레임 파일을 재생. 예)
+  // adb shell am start -n <패키지>/.DetectorActivity --es replay <파일> --ez replay_realtime false
+  public static final String EXTRA_REPLAY = "replay";
+  public static final String EXTRA_REPLAY_REALTIME = "replay_realtime";
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   private boolean debug = false;
@@ -82,7 +99,14 @@ public abstract class CameraActivity extends AppCompatActivity
   private byte[][] yuvBytes = new byte[3][];
   private int[] rgbBytes = null;
   private int yRowStride;
-  protected int defaultModelIndex = 0;
+  // 센서 timestamp 가 SystemClock.elapsedRealtimeNanos 기준이면 그대로 쓰고, 아니면 도착 시각을 씀.
+  private boolean realtimeTimestamps = false;
+  private long frameTimeNs;
+  private int previewRotation;
+  // 프레임 정보를 길게 누르면 카메라 프레임을 파일로 녹화. 녹화 중이 아니면 null.
+  private volatile FrameRecorder frameRecorder;
+  private File replayFile;
+  protected int defaultModelIndex = 0; // getDefaultModel 과 같아야 함.
   protected int defaultDeviceIndex = 0;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
@@ -92,7 +116,8 @@ public abstract class CameraActivity extends AppCompatActivity
   private LinearLayout gestureLayout;
   private BottomSheetBehavior<LinearLayout> sheetBehavior;
 
-  protected TextView frameValueTextView, cropValueTextView, inferenceTimeTextView;
+  protected TextView frameValueTextView, cropValueTextView, inferenceTimeTextView, statsTextView;
+  protected final PipelineMetrics metrics = PipelineMetrics.get();
   protected ImageView bottomSheetArrowImageView;
   private ImageView plusImageView, minusImageView;
   protected ListView deviceView;
@@ -102,12 +127,14 @@ public abstract class CameraActivity extends AppCompatActivity
   int currentDevice = -1;
   int currentModel = -1;
   int currentNumThreads = -1;
+  /** True once the user picked a device or thread count; calibration results no longer apply. */
+  protected boolean backendChosenByUser = false;
 
   ArrayList<String> deviceStrings = new ArrayList<String>();
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
-    LOGGER.d("onCreate " + this);
+    LOGGER.d("onCreate %s", this);
     super.onCreate(null);
 
     // 앱에서 화면이 꺼지지 않도록 유지
@@ -121,8 +148,11 @@ public abstract class CameraActivity extends AppCompatActivity
     setSupportActionBar(toolbar);
     //getSupportActionBar().setDisplayShowTitleEnabled(false);
 
-    // 권한이 있는지 확인하고 해당 권한이 없으면 요청
-    if (hasPermission()) {
+    final String replay = getIntent().getStringExtra(EXTRA_REPLAY);
+    replayFile = replay != null ? new File(replay) : null;
+
+    // 권한이 있는지 확인하고 해당 권한이 없으면 요청. 재생할 때는 카메라를 쓰지 않음.
+    if (replayFile != null || hasPermission()) {
       setFragment();
     } else {
       requestPermission();
@@ -135,9 +165,15 @@ public abstract class CameraActivity extends AppCompatActivity
     minusImageView = findViewById(R.id.minus); // threads 의 - 버튼
     deviceView = findViewById(R.id.device_list); // cpu, gpu, nnapi
 
-    deviceStrings.add("CPU");
-    deviceStrings.add("GPU");
-    deviceStrings.add("NNAPI");
+    // DetectorFactory.applyBackend 가 이 이름으로 delegate 를 고름.
+    deviceStrings.add(DetectorFactory.DEVICE_CPU);
+    deviceStrings.add(DetectorFactory.DEVICE_XNNPACK);
+    deviceStrings.add(DetectorFactory.DEVICE_CPU_FP16);
+    deviceStrings.add(DetectorFactory.DEVICE_GPU);
+    // NNAPI delegate 는 Android Pie 이상에서만 사용함.
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+      deviceStrings.add(DetectorFactory.DEVICE_NNAPI);
+    }
 
     // ListView에 연결되어 데이터를 표시하고, 사용자가 항목을 선택할 수 있게 함.
     // deviceView 를 단일 선택 할 수 있게 하고 deviceView에 deviceStrings를 연결하여 텍스트 표시.
@@ -162,6 +198,7 @@ public abstract class CameraActivity extends AppCompatActivity
             new AdapterView.OnItemClickListener() {
               @Override
               public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                backendChosenByUser = true;
                 updateActiveModel();
               }
             });
@@ -172,7 +209,7 @@ public abstract class CameraActivity extends AppCompatActivity
     bottomSheetArrowImageView = findViewById(R.id.bottom_sheet_arrow); // 바 당기는 화살표
     modelView = findViewById((R.id.model_list)); // 인공지능 모델 선택(best-fp16.tflite)
 
-    modelStrings = getModelStrings(getAssets(), ASSET_PATH); // ASSET 디렉터리에 있는 파일들의 이름들을 배열로 저장.
+    modelStrings = getModelStrings(getAssets()); // ASSET 디렉터리에 있는 모델들의 이름들을 배열로 저장.
 
     modelView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
     ArrayAdapter<String> modelAdapter =
@@ -251,6 +288,18 @@ public abstract class CameraActivity extends AppCompatActivity
     frameValueTextView = findViewById(R.id.frame_info); // 하단 시트의 frame
     cropValueTextView = findViewById(R.id.crop_info); // 하단 시트의  crop
     inferenceTimeTextView = findViewById(R.id.inference_info); // 하단 시트의 infernce info
+    statsTextView = findViewById(R.id.stats_info); // 하단 시트의 단계별 p50/p95/p99
+    // 길게 누르면 지금까지의 단계별 지연 시간을 JSON 파일로 저장.
+    statsTextView.setOnLongClickListener(v -> {
+      dumpMetrics();
+      return true;
+    });
+
+    // 길게 누르면 카메라 프레임 녹화를 시작하거나 멈춤.
+    frameValueTextView.setOnLongClickListener(v -> {
+      toggleFrameRecording();
+      return true;
+    });
 
     plusImageView.setOnClickListener(this); //threads의 +버튼 클릭 시 이벤트
     minusImageView.setOnClickListener(this); //threads의 -버튼 클릭 시 이벤트
@@ -258,27 +307,33 @@ public abstract class CameraActivity extends AppCompatActivity
 
 
 
-  // asset 디렉터리 에서 .tflite 인 파일의 이름을 추출
-  protected ArrayList<String> getModelStrings(AssetManager mgr, String path){
-    ArrayList<String> res = new ArrayList<String>();
+  // 모델 선택 창에서 처음 선택되는 모델. 모델이 없으면 null.
+  static String getDefaultModel(AssetManager mgr) {
+    final ArrayList<String> models = getModelStrings(mgr);
+    return models.isEmpty() ? null : models.get(0);
+  }
+
+  // 번들된 탐지 모델의 이름. asset 목록과 models.json 은 프로세스당 한 번만 읽음.
+  protected static ArrayList<String> getModelStrings(AssetManager mgr){
     try {
-      String[] files = mgr.list(path);
-      for (String file : files) {
-        String[] splits = file.split("\\.");
-        if (splits[splits.length - 1].equals("tflite")) {
-          res.add(file);
-        }
-      }
+      return ModelManifest.get(mgr).getModelFiles(ModelDescriptor.ROLE_DETECTOR);
     }
     catch (IOException e){
       System.err.println("getModelStrings: " + e.getMessage());
+      return new ArrayList<String>();
     }
-    return res;
+  }
+
+  // 현재 프레임이 찍힌 시각. SystemClock.elapsedRealtimeNanos 기준.
+  protected long getFrameTimeNs() {
+    return frameTimeNs;
   }
 
   // 이미지를 rgb 배열로 반환
   protected int[] getRgbBytes() {
+    final long start = metrics.begin(Stage.YUV_CONVERT);
     imageConverter.run();
+    metrics.end(Stage.YUV_CONVERT, start);
     return rgbBytes;
   }
 
@@ -301,6 +356,7 @@ public abstract class CameraActivity extends AppCompatActivity
     // 현재 프레임이 처리 중인지 확인
     // 이미 처리 중인 경우에는 프레임을 건너뛰고 함수를 종료
     if (isProcessingFrame) {
+      metrics.frameDropped();
       LOGGER.w("Dropping frame!");
       return;
     }
@@ -313,6 +369,7 @@ public abstract class CameraActivity extends AppCompatActivity
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
+        previewRotation = 90;
 
         // 프레임 사이즈에 맞게 배열 초기화
         rgbBytes = new int[previewWidth * previewHeight];
@@ -325,8 +382,13 @@ public abstract class CameraActivity extends AppCompatActivity
     }
 
     isProcessingFrame = true;
+    frameTimeNs = SystemClock.elapsedRealtimeNanos(); // Camera1 은 timestamp 가 없으므로 도착 시각.
     yuvBytes[0] = bytes; //  YUV 데이터를 받아와 yuvBytes[0] 배열에 저장
     yRowStride = previewWidth;
+    final FrameRecorder recorder = frameRecorder;
+    if (recorder != null) {
+      recorder.offer(frameTimeNs, yuvBytes, 1, yRowStride, 0, 0);
+    }
 
     imageConverter =
             new Runnable() {
@@ -376,7 +438,9 @@ public abstract class CameraActivity extends AppCompatActivity
     try {
       // ImageReader로부터 (실시간) 최신 이미지(image)를 획득.
       // final : 값을 변경할 수 없음.
+      final long acquireStart = metrics.begin(Stage.ACQUIRE);
       final Image image = reader.acquireLatestImage();
+      metrics.end(Stage.ACQUIRE, acquireStart);
 
 
       // 이미지가 없는 경우 메서드를 종료.
@@ -392,11 +456,13 @@ public abstract class CameraActivity extends AppCompatActivity
       // 현재 도착한 이미지를 닫고 함수 실행을 종료하여 중복 처리를 방지함.
       // 이를 통해 이미지 처리 작업의 순서를 보장하고, 정확한 결과를 얻을 수 있음.
       if (isProcessingFrame) {
+        metrics.frameDropped();
         image.close();
         return;
       }
 
       isProcessingFrame = true;
+      frameTimeNs = realtimeTimestamps ? image.getTimestamp() : SystemClock.elapsedRealtimeNanos();
 
       Trace.beginSection("imageAvailable");
 
@@ -405,6 +471,10 @@ public abstract class CameraActivity extends AppCompatActivity
       yRowStride = planes[0].getRowStride(); // Y 데이터의 행 간격, 행 간격은 한 행의 데이터 크기와 다음 행의 데이터 시작 위치 사이의 거리를 의미
       final int uvRowStride = planes[1].getRowStride(); // UV 데이터의 행 간격
       final int uvPixelStride = planes[1].getPixelStride(); // UV 데이터의 픽셀 간격
+      final FrameRecorder recorder = frameRecorder;
+      if (recorder != null) {
+        recorder.offer(frameTimeNs, yuvBytes, planes.length, yRowStride, uvRowStride, uvPixelStride);
+      }
 
       imageConverter =
               new Runnable() {
@@ -444,15 +514,80 @@ public abstract class CameraActivity extends AppCompatActivity
     Trace.endSection();
   }
 
+  /** Callback for {@link FrameReplayFragment} */
+  @Override
+  public void onReplaySizeChosen(final Size size, final int rotation) {
+    previewWidth = size.getWidth();
+    previewHeight = size.getHeight();
+    previewRotation = rotation;
+    rgbBytes = new int[previewWidth * previewHeight];
+    onPreviewSizeChosen(size, rotation);
+  }
+
+  @Override
+  public boolean isReadyForReplayFrame() {
+    return !isProcessingFrame && !isDetectionPending();
+  }
+
+  // 녹화된 프레임을 카메라 프레임과 같은 경로로 처리. 재생 스레드에서 호출됨.
+  @Override
+  public void onReplayFrame(final FrameRecording.Frame frame) {
+    if (isProcessingFrame) {
+      metrics.frameDropped();
+      return;
+    }
+    isProcessingFrame = true;
+    // 녹화된 timestamp 는 재생 간격에만 쓰고, 지연 시간은 지금부터 잼.
+    frameTimeNs = SystemClock.elapsedRealtimeNanos();
+    for (int i = 0; i < frame.planeCount; ++i) {
+      yuvBytes[i] = frame.planes[i];
+    }
+    yRowStride = frame.yRowStride;
+    imageConverter =
+            new Runnable() {
+              @Override
+              public void run() {
+                if (frame.planeCount == 1) {
+                  ImageUtils.convertYUV420SPToARGB8888(frame.planes[0], previewWidth, previewHeight, rgbBytes);
+                } else {
+                  ImageUtils.convertYUV420ToARGB8888(frame.planes[0], frame.planes[1], frame.planes[2],
+                          previewWidth, previewHeight, frame.yRowStride, frame.uvRowStride, frame.uvPixelStride,
+                          rgbBytes);
+                }
+              }
+            };
+    postInferenceCallback =
+            new Runnable() {
+              @Override
+              public void run() {
+                isProcessingFrame = false;
+              }
+            };
+    processImage();
+  }
+
+  @Override
+  public void onReplayFinished(final int frames, final long elapsedNs) {
+    final String message = String.format("Replayed %d frames in %.1fs, %.1f fps",
+            frames, elapsedNs / 1e9, elapsedNs == 0 ? 0 : frames * 1e9 / elapsedNs);
+    LOGGER.i("%s: %s", replayFile, message);
+    runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_LONG).show());
+  }
+
+  // 재생할 때 이전 프레임의 추론이 끝나기 전에는 다음 프레임을 넘기지 않도록 하위 클래스가 알려줌.
+  protected boolean isDetectionPending() {
+    return false;
+  }
+
   @Override
   public synchronized void onStart() {
-    LOGGER.d("onStart " + this);
+    LOGGER.d("onStart %s", this);
     super.onStart();
   }
 
   @Override
   public synchronized void onResume() {
-    LOGGER.d("onResume " + this);
+    LOGGER.d("onResume %s", this);
     super.onResume();
 
     handlerThread = new HandlerThread("inference");
@@ -462,7 +597,8 @@ public abstract class CameraActivity extends AppCompatActivity
 
   @Override
   public synchronized void onPause() {
-    LOGGER.d("onPause " + this);
+    LOGGER.d("onPause %s", this);
+    stopFrameRecording();
 
     handlerThread.quitSafely();
     try {
@@ -478,20 +614,19 @@ public abstract class CameraActivity extends AppCompatActivity
 
   @Override
   public synchronized void onStop() {
-    LOGGER.d("onStop " + this);
+    LOGGER.d("onStop %s", this);
     super.onStop();
   }
 
   @Override
   public synchronized void onDestroy() {
-    LOGGER.d("onDestroy " + this);
+    LOGGER.d("onDestroy %s", this);
     super.onDestroy();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
+  // 추론 쓰레드가 멈춘 뒤(onPause)에는 r 을 버리고 false 를 반환.
+  protected synchronized boolean runInBackground(final Runnable r) {
+    return handler != null && handler.post(r);
   }
 
   //  메소드는 권한 요청 결과를 확인
@@ -581,6 +716,10 @@ public abstract class CameraActivity extends AppCompatActivity
                         || isHardwareLevelSupported(
                         characteristics, CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_FULL);
         LOGGER.i("Camera API lv2?: %s", useCamera2API);
+        final Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        realtimeTimestamps = timestampSource != null
+                && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        LOGGER.i("Sensor timestamps in elapsedRealtime?: %s", realtimeTimestamps);
         return cameraId;
       }
     } catch (CameraAccessException e) {
@@ -593,6 +732,13 @@ public abstract class CameraActivity extends AppCompatActivity
 // 카메라 프래그먼트는 카메라 API와 상호작용하고 이미지 처리 및 분석을 위한 데이터를 제공하는 역할을 수행
   protected void setFragment() {
     // 사용할 카메라 id를 가져옴
+        if (replayFile != null) {
+          final boolean realtime = getIntent().getBooleanExtra(EXTRA_REPLAY_REALTIME, true);
+          getFragmentManager().beginTransaction()
+                  .replace(R.id.container, new FrameReplayFragment(this, getLayoutId(), replayFile, realtime))
+                  .commit();
+          return;
+        }
         String cameraId = chooseCamera();
 
         Fragment fragment;
@@ -606,6 +752,7 @@ public abstract class CameraActivity extends AppCompatActivity
                         public void onPreviewSizeChosen(final Size size, final int rotation) {
                           previewHeight = size.getHeight();
                           previewWidth = size.getWidth();
+                          previewRotation = rotation;
                           CameraActivity.this.onPreviewSizeChosen(size, rotation);
                         }
                       },
@@ -675,6 +822,9 @@ public abstract class CameraActivity extends AppCompatActivity
   // 여러 개의 스레드를 사용하여 모델의 작업을 병렬로 처리할 수 있기 때문에 처리 속도가 향상될 수 있습니다.
   @Override
   public void onClick(View v) {
+    if (v.getId() == R.id.plus || v.getId() == R.id.minus) {
+      backendChosenByUser = true;
+    }
     // 클릭된 버튼이 plus 버튼인지 확인.
     if (v.getId() == R.id.plus) {
       // 현재 스레드 수를 증가시키고 증가된 스레드 수를 표시.
@@ -699,6 +849,22 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
+  // 하단 시트에서 device 와 쓰레드 수를 선택된 상태로 표시. 모델은 다시 만들지 않음.
+  protected void selectBackend(final String device, final int numThreads) {
+    final int deviceIndex = deviceStrings.indexOf(device);
+    if (deviceIndex >= 0) {
+      deviceView.setItemChecked(deviceIndex, true);
+    }
+    threadsTextView.setText(String.valueOf(numThreads));
+  }
+
+  // 모델이 이미 device 와 numThreads 로 만들어졌을 때, 하단 시트와 현재 상태를 맞춤.
+  protected void showBackend(final String device, final int numThreads) {
+    selectBackend(device, numThreads);
+    currentDevice = deviceStrings.indexOf(device);
+    currentNumThreads = numThreads;
+  }
+
   protected void showFrameInfo(String frameInfo) {
     frameValueTextView.setText(frameInfo);
   }
@@ -711,6 +877,67 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  protected void showStats(String stats) {
+    statsTextView.setText(stats);
+  }
+
+  // 앱 전용 외부 저장소. 없으면 내부 저장소.
+  private File getOutputDir() {
+    final File dir = getExternalFilesDir(null);
+    return dir != null ? dir : getFilesDir();
+  }
+
+  // 앱 전용 외부 저장소에 metrics-<시각>.json 으로 저장하고 파일 이름을 알려줌. 저장 후 기록을 새로 시작.
+  // 최근 Logger 이벤트도 events-<시각>.txt 로 함께 저장.
+  private void dumpMetrics() {
+    final String json = metrics.toJson();
+    final long time = System.currentTimeMillis();
+    final File file = new File(getOutputDir(), "metrics-" + time + ".json");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        Writer events = new OutputStreamWriter(
+            new FileOutputStream(new File(getOutputDir(), "events-" + time + ".txt")), "UTF-8")) {
+      writer.write(json);
+      Logger.dumpEvents(events);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Exception writing metrics");
+      Toast.makeText(this, "Could not save metrics", Toast.LENGTH_SHORT).show();
+      return;
+    }
+    LOGGER.i("Metrics written to %s", file);
+    metrics.reset();
+    Toast.makeText(this, "Saved " + file.getName(), Toast.LENGTH_SHORT).show();
+  }
+
+  // frames-<시각>.yfr 로 녹화. 재생은 EXTRA_REPLAY 로 파일을 넘겨서 함.
+  private void toggleFrameRecording() {
+    if (frameRecorder != null) {
+      final File file = frameRecorder.getFile();
+      stopFrameRecording();
+      Toast.makeText(this, "Saved " + file.getName(), Toast.LENGTH_SHORT).show();
+      return;
+    }
+    if (replayFile != null || previewWidth == 0 || previewHeight == 0) {
+      return; // 재생 중이거나 카메라가 아직 준비되지 않음.
+    }
+    final File file = new File(getOutputDir(), "frames-" + System.currentTimeMillis() + ".yfr");
+    try {
+      frameRecorder = new FrameRecorder(file, previewWidth, previewHeight, previewRotation);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Exception starting frame recording");
+      Toast.makeText(this, "Could not record frames", Toast.LENGTH_SHORT).show();
+      return;
+    }
+    Toast.makeText(this, "Recording frames", Toast.LENGTH_SHORT).show();
+  }
+
+  private void stopFrameRecording() {
+    final FrameRecorder recorder = frameRecorder;
+    frameRecorder = null;
+    if (recorder != null) {
+      recorder.close();
+    }
+  }
+
   protected abstract void updateActiveModel();
   protected abstract void processImage();
 
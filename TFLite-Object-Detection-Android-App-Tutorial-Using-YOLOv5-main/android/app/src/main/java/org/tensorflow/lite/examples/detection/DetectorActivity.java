@@ -16,6 +16,7 @@
 
 package org.tensorflow.lite.examples.detection;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.Canvas;
@@ -26,23 +27,34 @@ import android.graphics.Paint.Style;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
+import android.os.Build;
+import android.os.PowerManager;
 import android.os.SystemClock;
-import android.util.Log;
 import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.tensorflow.lite.examples.detection.customview.OverlayView;
 import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
+import org.tensorflow.lite.examples.detection.env.FrameDumper;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
+import org.tensorflow.lite.examples.detection.tflite.BackendCalibrator;
+import org.tensorflow.lite.examples.detection.tflite.BackendManager;
+import org.tensorflow.lite.examples.detection.tflite.CascadeDetector;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
 import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.DetectorProvider;
+import org.tensorflow.lite.examples.detection.tflite.MaterialRefiner;
+import org.tensorflow.lite.examples.detection.tflite.ResolutionController;
 import org.tensorflow.lite.examples.detection.tflite.YoloV5Classifier;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
 
@@ -52,25 +64,48 @@ import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
  */
 public class DetectorActivity extends CameraActivity implements OnImageAvailableListener {
     private static final Logger LOGGER = new Logger();
+    // 프레임마다 남기는 로그는 문자열을 만들지 않도록 이벤트로 기록. 화면을 길게 눌러 metrics 와 함께 저장.
+    private static final int EVENT_PREPARE = Logger.registerEvent("Preparing image %d for detection");
+    private static final int EVENT_DETECT = Logger.registerEvent("Running detection on image %d");
+    private static final int EVENT_DETECTED = Logger.registerEvent("Image %d: %d results");
 
     // TF_OD_API :  TensorFlow Object Detection API를 사용하는 모드
     private static final DetectorMode MODE = DetectorMode.TF_OD_API;
     private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.3f;
     private static final boolean MAINTAIN_ASPECT = true;
     private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 640);
-    private static final boolean SAVE_PREVIEW_BITMAP = false;
+    // true 이면 샘플링한 입력 이미지와 탐지 결과를 dumps/ 에 저장. 저장은 별도 쓰레드에서 하고 밀리면 버림.
+    private static final boolean DUMP_FRAMES = false;
+    // DUMP_FRAMES 일 때 주기적으로 저장할 프레임 간격.
+    private static final int DUMP_EVERY_N_FRAMES = 300;
+    // true 이면 모델 출력을 recordings/ 에 기록. core 모듈의 OutputReplay 로 PC 에서 다시 돌려볼 수 있음.
+    private static final boolean RECORD_OUTPUTS = false;
     private static final float TEXT_SIZE_DIP = 10;
+    // 추론 시간이 이 값을 넘으면 입력 해상도를 낮춤.
+    private static final long INFERENCE_LATENCY_BUDGET_MS = 150;
+    // 작은 gate 모델로 먼저 검사하고, 물체가 있어 보이는 프레임에만 전체 모델을 실행.
+    // gate 모델을 assets 에 넣고 models.json 에 "role": "gate" 로 추가했을 때만 사용.
+    private static final boolean USE_CASCADE = true;
+    // 재질 분류 모델이 있으면, 새로 나타났거나 불확실한 박스만 원본 해상도로 잘라 다시 분류.
+    // cascade 와 마찬가지로 분류 모델을 models.json 에 "role": "classifier" 로 추가했을 때만 사용.
+    private static final boolean USE_MATERIAL_REFINER = true;
     OverlayView trackingOverlay;
     private Integer sensorOrientation;
 
     private YoloV5Classifier detector;
+    private CascadeDetector cascade;
+    private MaterialRefiner materialRefiner;
 
     private long lastProcessingTimeMs;
     private Bitmap rgbFrameBitmap = null;
     private Bitmap croppedBitmap = null;
     private Bitmap cropCopyBitmap = null;
 
-    private boolean computingDetection = false;
+    private volatile boolean computingDetection = false;
+    // BackendCalibrator 가 측정하는 동안 true. 그동안은 프레임을 추론하지 않음.
+    private volatile boolean calibrating = false;
+    // configureCrop 이 croppedBitmap 과 변환 행렬을 바꿀 때마다 증가. 바뀌기 전에 그린 프레임을 가려냄.
+    private volatile int cropGeneration = 0;
 
     private long timestamp = 0;
 
@@ -81,8 +116,37 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     private BorderedText borderedText;
 
+    private ResolutionController resolutionController;
+    private PowerManager powerManager;
+    private BackendManager backendManager;
+    private FrameDumper frameDumper;
+
+    // 카메라를 열 때마다(onResume) 호출됨. 모델과 추적기는 처음 한 번만 만들고, 프리뷰 크기에 따른 설정만 다시 함.
     @Override
     public void onPreviewSizeChosen(final Size size, final int rotation) {
+        if (detector == null && !initDetection()) {
+            return;
+        }
+
+        // 프리뷰 너비와 높이.
+        previewWidth = size.getWidth();
+        previewHeight = size.getHeight();
+
+        // rotation 은 매개변수. getScreenOrientation()은 현재 디바이스의 화면 방향
+        sensorOrientation = rotation - getScreenOrientation();
+        LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
+
+        LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
+
+        // 이미지의 rgb값을 저장할 비트맵 객체를 생성
+        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        configureCrop(detector.getInputSize()); // input_size 에 맞게 crop 설정.
+
+        tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+    }
+
+    // 모델, 추적기, 결과 출력 창처럼 액티비티마다 한 번만 만드는 것들. 모델을 불러오지 못하면 액티비티를 닫고 false 를 반환.
+    private boolean initDetection() {
         // 디바이스에 맞는 텍스트 사이즈 반환.
         final float textSizePx =
                 TypedValue.applyDimension(
@@ -99,7 +163,10 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         final String modelString = modelStrings.get(modelIndex);
 
         try {
-                detector = DetectorFactory.getDetector(getAssets(), modelString); // 모델 지정.
+            setClassifier(acquireClassifier(this, modelString)); // 모델 지정. 미리 불러와서 워밍업된 것이 있으면 그것을 씀.
+            if (USE_MATERIAL_REFINER) {
+                materialRefiner = DetectorFactory.getMaterialRefiner(getAssets());
+            }
         } catch (final IOException e) {
             e.printStackTrace();
             LOGGER.e(e, "Exception initializing classifier!");
@@ -108,35 +175,22 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                             getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
             toast.show();
             finish();
+            return false;
         }
 
-        int cropSize = detector.getInputSize(); // input_size 반환.
-
-        // 프리뷰 너비와 높이.
-        previewWidth = size.getWidth();
-        previewHeight = size.getHeight();
-
-        // rotation 은 매개변수. getScreenOrientation()은 현재 디바이스의 화면 방향
-        sensorOrientation = rotation - getScreenOrientation();
-        LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
-
-        LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-
-        // 이미지의 rgb값을 저장할 비트맵 객체를 생성
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
-
-        // 이미지를 프리뷰 프레임에 맞게 자름.
-        frameToCropTransform =
-                ImageUtils.getTransformationMatrix(
-                        previewWidth, previewHeight,
-                        cropSize, cropSize,
-                        sensorOrientation, MAINTAIN_ASPECT);
+        if (DUMP_FRAMES) {
+            // 주기적인 샘플, 임계값 바로 아래의 애매한 탐지, 탐지된 클래스가 바뀐 프레임을 저장.
+            final File dir = getExternalFilesDir(null);
+            frameDumper = new FrameDumper(new File(dir != null ? dir : getFilesDir(), "dumps"), FrameDumper.Format.JPEG,
+                    FrameDumper.anyOf(
+                            FrameDumper.everyNthFrame(DUMP_EVERY_N_FRAMES),
+                            FrameDumper.onLowConfidence(MINIMUM_CONFIDENCE_TF_OD_API / 2, MINIMUM_CONFIDENCE_TF_OD_API),
+                            FrameDumper.onClassChange(MINIMUM_CONFIDENCE_TF_OD_API)));
+        }
 
-        // cropToFrameTransform 은 frameToCropTransform의 역변환 행렬
-        // 크롭된 이미지에서 원래의 이미지로 돌아가기 위해 역변환 행렬이 필요함.
-        cropToFrameTransform = new Matrix();
-        frameToCropTransform.invert(cropToFrameTransform);
+        powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        resolutionController = new ResolutionController(
+                ResolutionController.DEFAULT_INPUT_SIZES, detector.getInputSize(), INFERENCE_LATENCY_BUDGET_MS);
 
 
         // 결과 출력 창.
@@ -146,114 +200,285 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                     @Override
                     public void drawCallback(final Canvas canvas) {
                         // tracker => MultiBoxTracker.java
+                        final long start = metrics.begin(Stage.DRAW);
                         tracker.draw(canvas);
+                        metrics.end(Stage.DRAW, start);
                         if (isDebug()) {
                             tracker.drawDebug(canvas);
                         }
                     }
                 });
 
-        tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+        backendManager = new BackendManager(this::runInBackground, detector);
+        calibrateBackend(modelString);
+        return true;
     }
 
-    protected void updateActiveModel() {
-        // Get UI information before delegating to background
-        final int modelIndex = modelView.getCheckedItemPosition(); // 선택된 인공지능 모델
-        final int deviceIndex = deviceView.getCheckedItemPosition(); // 선택된 장치(cpu, gpu,,,)
-        String threads = threadsTextView.getText().toString().trim(); // threads 텍스트
-        final int numThreads = Integer.parseInt(threads);
+    // 이 기기에서 가장 빠른 delegate/쓰레드 조합을 하단 시트에 표시.
+    // 아직 측정한 적이 없으면 test.jpg 로 백그라운드에서 측정한 뒤 적용. 사용자가 직접 고르면 그 선택이 우선.
+    // 저장된 결과를 읽는 것도 파일과 SharedPreferences 를 읽으므로 UI 쓰레드가 아니라 BackendManager 의 준비 쓰레드에서 실행.
+    private void calibrateBackend(final String modelString) {
+        backendManager.execute(() -> {
+            try {
+                final BackendCalibrator.Backend saved = BackendCalibrator.load(this, modelString);
+                if (saved != null) {
+                    runOnUiThread(() -> {
+                        if (!backendChosenByUser) {
+                            showBackend(saved.device, saved.numThreads);
+                        }
+                    });
+                    return;
+                }
+            } catch (final IOException e) {
+                LOGGER.e(e, "Exception reading backend calibration");
+                return;
+            }
 
-        handler.post(() -> {
-            // 현재 선택된 모델, 디바이스, 쓰레드 수와 이전에 설정된 값들이 같다면, 종료
-            if (modelIndex == currentModel && deviceIndex == currentDevice
-                    && numThreads == currentNumThreads) {
+            // 측정하는 동안 카메라 추론을 멈춤. 같은 코어를 나눠 쓰면 쓰레드 수별 결과가 틀어지고, 결과는 저장되어 다시 측정하지 않음.
+            final BackendCalibrator.Backend backend;
+            calibrating = true;
+            try {
+                // 이미 추론 쓰레드에 올라간 프레임이 끝날 때까지 기다림.
+                final CountDownLatch idle = new CountDownLatch(1);
+                if (runInBackground(idle::countDown)) {
+                    idle.await();
+                }
+                backend = BackendCalibrator.calibrate(this, modelString);
+            } catch (final IOException e) {
+                LOGGER.e(e, "Exception calibrating backend");
                 return;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt(); // BackendManager 가 닫힘.
+                return;
+            } finally {
+                calibrating = false;
             }
+            if (backend != null) {
+                runOnUiThread(() -> {
+                    if (!backendChosenByUser) {
+                        selectBackend(backend.device, backend.numThreads);
+                        updateActiveModel();
+                    }
+                });
+            }
+        });
+    }
 
-            currentModel = modelIndex;
-            currentDevice = deviceIndex;
-            currentNumThreads = numThreads;
+    // 프로세스 전체에서 공유하는 classifier. 앱 시작 시 DetectorApplication 이 미리 불러온 것이 있으면 그것을 씀.
+    // 다 쓰면 DetectorProvider.release 로 돌려줘야 함.
+    static Classifier acquireClassifier(final Context context, final String modelString) throws IOException {
+        final Context appContext = context.getApplicationContext();
+        return DetectorProvider.getInstance().acquire(
+                modelString, () -> createClassifier(appContext, modelString, true));
+    }
 
-            // Disable classifier while updating
-            // 모델 초기화
-            if (detector != null) {
-                detector.close();
-                detector = null;
-            }
+    // acquireClassifier 가 기다리지 않도록 백그라운드에서 미리 불러오고 워밍업.
+    static void preloadClassifier(final Context context, final String modelString) {
+        final Context appContext = context.getApplicationContext();
+        DetectorProvider.getInstance().preload(
+                modelString, () -> createClassifier(appContext, modelString, true));
+    }
+
+    // USE_CASCADE 이고 gate 모델이 있으면 gate 와 전체 모델을 함께 만듦.
+    // calibrated 이면 BackendCalibrator 가 찾은 delegate 와 쓰레드 수로 만듦.
+    // 필드를 건드리지 않으므로 BackendManager 의 준비 스레드에서도 호출할 수 있음.
+    private static Classifier createClassifier(final Context context, final String modelString,
+                                               final boolean calibrated) throws IOException {
+        if (USE_CASCADE && DetectorFactory.hasGate(context.getAssets())) {
+            return calibrated
+                    ? DetectorFactory.getCascadeDetector(context, modelString, DetectorFactory.DEFAULT_GATE_THRESHOLD)
+                    : DetectorFactory.getCascadeDetector(context.getAssets(), modelString, DetectorFactory.DEFAULT_GATE_THRESHOLD);
+        }
+        return calibrated
+                ? DetectorFactory.getDetector(context, modelString)
+                : DetectorFactory.getDetector(context.getAssets(), modelString);
+    }
 
-            // Lookup names of parameters.
-            // 문자열로 받아오기
-            String modelString = modelStrings.get(modelIndex);
-            String device = deviceStrings.get(deviceIndex);
+    // detector 는 cascade 이면 그 중 전체 모델을 가리킴.
+    // 단계별 시간은 이 화면의 classifier 에서만 기록. 다른 화면에 넘길 때는 releaseClassifier 로 끔.
+    private void setClassifier(final Classifier classifier) {
+        classifier.enableStatLogging(true);
+        cascade = classifier instanceof CascadeDetector ? (CascadeDetector) classifier : null;
+        detector = detectorOf(classifier);
+        if (RECORD_OUTPUTS) {
+            final File dir = getExternalFilesDir(null);
+            detector.startRecording(new File(dir != null ? dir : getFilesDir(), "recordings"));
+        }
+    }
 
-            LOGGER.i("Changing model to " + modelString + " device " + device);
+    static YoloV5Classifier detectorOf(final Classifier classifier) {
+        return classifier instanceof CascadeDetector
+                ? ((CascadeDetector) classifier).getDetector()
+                : (YoloV5Classifier) classifier;
+    }
 
-            // Try to load model.
+    private static void releaseClassifier(final Classifier classifier) {
+        classifier.enableStatLogging(false);
+        detectorOf(classifier).stopRecording();
+        DetectorProvider.getInstance().release(classifier); // 공유 중인 classifier 이면 닫지 않고 불러온 때의 크기와 백엔드로 되돌림.
+    }
 
-            try {
-                detector = DetectorFactory.getDetector(getAssets(), modelString); // 모델 지정.
-                // Customize the interpreter to the type of device we want to use.
-                if (detector == null) {
-                    return;
-                }
-            }
-            catch(IOException e) {
-                e.printStackTrace();
-                LOGGER.e(e, "Exception in updateActiveModel()");
-                Toast toast =
-                        Toast.makeText(
-                                getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-                toast.show();
-                finish();
-            }
+    private Classifier getClassifier() {
+        return cascade != null ? cascade : detector;
+    }
 
+    // croppedBitmap 과 변환 행렬을 cropSize 에 맞게 다시 만듦. 프리뷰 크기가 정해질 때와 추론 스레드에서 호출됨.
+    // 모델 교체처럼 processImage 가 이전 croppedBitmap 에 그리는 중에 호출될 수 있으므로,
+    // 새 객체로 바꾼 뒤 cropGeneration 을 올려서 그 프레임은 추론하지 않게 함.
+    private void configureCrop(final int cropSize) {
+        // 이미지의 rgb값을 저장할 비트맵 객체를 생성
+        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
 
-            // 모델의 디바이스 선택
-            if (device.equals("CPU")) {
-                detector.useCPU();
-            } else if (device.equals("GPU")) {
-                detector.useGpu();
-            } else if (device.equals("NNAPI")) {
-                detector.useNNAPI();
-            }
+        // 이미지를 프리뷰 프레임에 맞게 자름.
+        frameToCropTransform =
+                ImageUtils.getTransformationMatrix(
+                        previewWidth, previewHeight,
+                        cropSize, cropSize,
+                        sensorOrientation, MAINTAIN_ASPECT);
+
+        // cropToFrameTransform 은 frameToCropTransform의 역변환 행렬
+        // 크롭된 이미지에서 원래의 이미지로 돌아가기 위해 역변환 행렬이 필요함.
+        final Matrix cropToFrame = new Matrix();
+        frameToCropTransform.invert(cropToFrame);
+        cropToFrameTransform = cropToFrame;
+        ++cropGeneration;
+    }
+
+    @Override
+    protected boolean isDetectionPending() {
+        return computingDetection;
+    }
+
+    // 입력 해상도를 바꾸고, 모델이 지원하지 않으면 컨트롤러에 알림.
+    private void applyInputSize(final int inputSize) {
+        if (!detector.setInputSize(inputSize)) {
+            resolutionController.onSwitchFailed(inputSize, detector.getInputSize());
+            return;
+        }
+        configureCrop(inputSize);
+    }
+
+    private int getThermalStatus() {
+        if (powerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return PowerManager.THERMAL_STATUS_NONE;
+        }
+        return powerManager.getCurrentThermalStatus();
+    }
 
-            // 쓰레드 수 설정
-            detector.setNumThreads(numThreads);
+    // 모델이 바뀌면 새 모델을, device 가 바뀌면 새 interpreter 를 백그라운드에서 준비하고
+    // 추론 스레드에서 프레임 사이에 교체함. 준비하는 동안에는 기존 모델이 계속 추론함.
+    protected void updateActiveModel() {
+        // Get UI information before delegating to background
+        final int modelIndex = modelView.getCheckedItemPosition(); // 선택된 인공지능 모델
+        final int deviceIndex = deviceView.getCheckedItemPosition(); // 선택된 장치(cpu, gpu,,,)
+        String threads = threadsTextView.getText().toString().trim(); // threads 텍스트
+        final int numThreads = Integer.parseInt(threads);
 
+        // 카메라가 준비되기 전이면 onPreviewSizeChosen 에서 선택된 모델을 불러옴.
+        if (backendManager == null) {
+            return;
+        }
+        // 현재 선택된 모델, 디바이스, 쓰레드 수와 이전에 설정된 값들이 같다면, 종료
+        if (modelIndex == currentModel && deviceIndex == currentDevice
+                && numThreads == currentNumThreads) {
+            return;
+        }
 
-            int cropSize = detector.getInputSize(); // input_size 리턴.
+        // Lookup names of parameters.
+        // 문자열로 받아오기
+        final String modelString = modelStrings.get(modelIndex);
+        final String device = deviceStrings.get(deviceIndex);
+        LOGGER.i("Changing model to %s device %s", modelString, device);
+
+        final int previousModel = currentModel;
+        final int previousDevice = currentDevice;
+        if (modelIndex != currentModel) {
+            backendManager.loadModel(
+                    () -> {
+                        final Classifier classifier = createClassifier(DetectorActivity.this, modelString, false);
+                        // 모델의 디바이스 선택, 쓰레드 수 설정
+                        DetectorFactory.applyBackend(detectorOf(classifier), device, numThreads);
+                        classifier.setNumThreads(numThreads); // cascade 이면 gate 모델까지
+                        return classifier;
+                    },
+                    DetectorActivity::detectorOf,
+                    new BackendManager.Callback<Classifier>() {
+                        @Override
+                        public void onReady(final Classifier classifier) {
+                            final Classifier previous = getClassifier();
+                            setClassifier(classifier);
+                            releaseClassifier(previous);
+                            // 새 모델은 기본 입력 크기부터 다시 시작.
+                            resolutionController.reset(detector.getInputSize());
+                            // 이미 이전 crop 에 그려서 올라온 프레임은 cropGeneration 으로 건너뜀.
+                            configureCrop(detector.getInputSize());
+                        }
 
-            // 이미지의 rgb값을 저장할 비트맵 객체를 생성
-            croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+                        @Override
+                        public void onFailed(final Exception e) {
+                            // 기존 모델과 device 로 계속 추론하므로 선택도 되돌림.
+                            runOnUiThread(() -> {
+                                if (currentModel == modelIndex) {
+                                    modelView.setItemChecked(previousModel, true);
+                                    currentModel = previousModel;
+                                    deviceView.setItemChecked(previousDevice, true);
+                                    currentDevice = previousDevice;
+                                }
+                            });
+                            showToast("Classifier could not be initialized");
+                        }
+                    });
+        } else if (deviceIndex != currentDevice) {
+            backendManager.switchBackend(device, numThreads,
+                    new BackendManager.Callback<YoloV5Classifier>() {
+                        @Override
+                        public void onReady(final YoloV5Classifier switched) {
+                            LOGGER.i("Switched to %s", device);
+                        }
 
-            // 이미지를 프리뷰 프레임에 맞게 자름.
-            frameToCropTransform =
-                    ImageUtils.getTransformationMatrix(
-                            previewWidth, previewHeight,
-                            cropSize, cropSize,
-                            sensorOrientation, MAINTAIN_ASPECT);
+                        @Override
+                        public void onFailed(final Exception e) {
+                            // 기존 device 로 계속 추론하므로 선택도 되돌림.
+                            runOnUiThread(() -> {
+                                if (currentDevice == deviceIndex) {
+                                    deviceView.setItemChecked(previousDevice, true);
+                                    currentDevice = previousDevice;
+                                }
+                            });
+                            showToast(device + " is not available");
+                        }
+                    });
+        } else {
+            setNumThreads(numThreads);
+        }
 
-            // 역변환 행렬 생성.
-            cropToFrameTransform = new Matrix();
-            frameToCropTransform.invert(cropToFrameTransform);
-        });
+        currentModel = modelIndex;
+        currentDevice = deviceIndex;
+        currentNumThreads = numThreads;
+    }
+
+    private void showToast(final String text) {
+        runOnUiThread(() -> Toast.makeText(getApplicationContext(), text, Toast.LENGTH_SHORT).show());
     }
 
     @Override
     protected void processImage() {
         ++timestamp;
         final long currTimestamp = timestamp;
+        final long captureTimeNs = getFrameTimeNs(); // 결과를 화면에 처음 그릴 때 지연 시간을 잼.
         trackingOverlay.postInvalidate(); // 추론 결과를 실시간으로 화면에 반영
 
         // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
+        if (computingDetection || calibrating) {
+            metrics.frameDropped(); // 이전 프레임을 아직 추론 중이거나 백엔드를 측정 중이라 건너뜀.
             readyForNextImage(); // 흠?
             return;
         }
 
 
         computingDetection = true;
-        LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
+        Logger.event(EVENT_PREPARE, currTimestamp);
+        final int frameCropGeneration = cropGeneration; // croppedBitmap 을 읽기 전에.
 
 
         // getRgbBytes()는 rgb이미지 데이터를 가지고 있음.
@@ -271,28 +496,42 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         readyForNextImage();
 
         // 자른 이미지를 그리기.
+        final long cropStart = metrics.begin(Stage.CROP);
         final Canvas canvas = new Canvas(croppedBitmap);
         canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-
-        // For examining the actual TF input.
-        if (SAVE_PREVIEW_BITMAP) {
-            ImageUtils.saveBitmap(croppedBitmap);
-        }
+        metrics.end(Stage.CROP, cropStart);
 
         // 추론 작업
         runInBackground(
                 new Runnable() {
                     @Override
                     public void run() {
-                        LOGGER.i("Running detection on image " + currTimestamp);
+                        // 이 프레임을 올린 뒤에 측정이 시작되었거나, 모델이 바뀌어 이전 crop 에 그린 프레임이면 건너뜀.
+                        if (calibrating || frameCropGeneration != cropGeneration) {
+                            computingDetection = false;
+                            return;
+                        }
+                        Logger.event(EVENT_DETECT, currTimestamp);
 
                         final long startTime = SystemClock.uptimeMillis();
 
                         // crop된 이미지를 입력으로 추론을 하고 그 결과를 result에 저장. 클래스 레이블 여기서 저장됨.
-                        final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
+                        final List<Classifier.Recognition> results = getClassifier().recognizeImage(croppedBitmap);
 
                         lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-                        Log.e("CHECK", "run: " + results.size());
+
+                        // 실제 모델 입력과 결과. 박스 좌표가 프리뷰 기준으로 바뀌기 전에 넘김.
+                        final FrameDumper dumper = frameDumper; // onDestroy 에서 null 이 될 수 있음.
+                        if (dumper != null) {
+                            dumper.offer(croppedBitmap, results, currTimestamp);
+                        }
+                        Logger.event(EVENT_DETECTED, currTimestamp, results.size());
+
+                        // 추론 시간, 발열 상태, 객체 크기를 보고 다음 프레임의 입력 해상도를 결정.
+                        // gate 에서 걸러진 프레임은 전체 모델의 시간이 아니므로 반영하지 않음.
+                        final int nextInputSize = cascade == null || cascade.ranDetector()
+                                ? resolutionController.onFrame(lastProcessingTimeMs, results, getThermalStatus())
+                                : detector.getInputSize();
 
                         // crop 이미지 복사
                         cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
@@ -334,10 +573,23 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                         //mappedRecognitions는 최종 추론 결과 중에서 정확도가 일정 이상인 객체들의 리스트입니다.
                         // 이 리스트에는 객체의 위치 정보와 클래스 레이블 등의 정보가 포함되어 있다.
 
+                        // 원본 프레임에서 박스를 잘라 재질을 다시 분류.
+                        final List<Classifier.Recognition> trackedRecognitions = materialRefiner != null
+                                ? materialRefiner.refine(rgbFrameBitmap, mappedRecognitions, sensorOrientation)
+                                : mappedRecognitions;
+
                         // 이미지 내에서 인식된 개체가 어디에 있는지.
-                        tracker.trackResults(mappedRecognitions, currTimestamp);
+                        final long trackStart = metrics.begin(Stage.TRACK);
+                        tracker.trackResults(trackedRecognitions, currTimestamp, captureTimeNs);
+                        metrics.end(Stage.TRACK, trackStart);
+                        metrics.frameProcessed();
                         trackingOverlay.postInvalidate();
 
+                        // croppedBitmap 을 다시 만드는 작업은 다음 프레임이 들어오기 전에 이 스레드에서 처리.
+                        if (nextInputSize != detector.getInputSize()) {
+                            applyInputSize(nextInputSize);
+                        }
+
                         computingDetection = false;
 
                         runOnUiThread(
@@ -346,13 +598,37 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
                                     public void run() {
                                         showFrameInfo(previewWidth + "x" + previewHeight);
                                         showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                                        showInference(lastProcessingTimeMs + "ms");
+                                        showInference(cascade != null
+                                                ? lastProcessingTimeMs + "ms (" + cascade.getStatString() + ")"
+                                                : lastProcessingTimeMs + "ms");
+                                        showStats(metrics.getStatString());
                                     }
                                 });
                     }
                 });
     }
 
+    @Override
+    public synchronized void onDestroy() {
+        if (backendManager != null) {
+            backendManager.close();
+        }
+        if (frameDumper != null) {
+            frameDumper.close();
+            frameDumper = null;
+        }
+        if (materialRefiner != null) {
+            materialRefiner.close();
+            materialRefiner = null;
+        }
+        if (detector != null) {
+            releaseClassifier(getClassifier());
+            detector = null;
+            cascade = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected int getLayoutId() {
         return R.layout.tfe_od_camera_connection_fragment_tracking;
@@ -376,6 +652,6 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     protected void setNumThreads(final int numThreads) {
-        runInBackground(() -> detector.setNumThreads(numThreads));
+        runInBackground(() -> getClassifier().setNumThreads(numThreads));
     }
 }
@@ -0,0 +1,32 @@
+package org.tensorflow.lite.examples.detection;
+
+import android.app.Application;
+
+import org.tensorflow.lite.examples.detection.tflite.DelegateCache;
+import org.tensorflow.lite.examples.detection.tflite.DetectorProvider;
+
+/**
+ * Starts loading the default detector when the process starts, so it is loaded and warmed up by
+ * the time an activity needs it.
+ */
+public class DetectorApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        DelegateCache.init(this); // GPU/NNAPI 컴파일 결과를 저장해서 다음 실행부터 빠르게 시작.
+
+        final String model = CameraActivity.getDefaultModel(getAssets());
+        if (model != null) {
+            DetectorActivity.preloadClassifier(this, model);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // 백그라운드로 내려가서 메모리가 부족하면, 아무도 쓰지 않는 모델을 닫음.
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            DetectorProvider.getInstance().trimMemory();
+        }
+    }
+}
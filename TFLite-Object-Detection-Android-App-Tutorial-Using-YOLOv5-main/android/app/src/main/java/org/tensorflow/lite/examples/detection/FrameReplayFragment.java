@@ -0,0 +1,130 @@
+package org.tensorflow.lite.examples.detection;
+
+import android.app.Fragment;
+import android.os.Bundle;
+import android.util.Size;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.tensorflow.lite.examples.detection.core.FrameRecording;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * Takes the place of the camera fragments and plays a {@link FrameRecording} into the activity,
+ * so the same footage can be run through the pipeline again and again.
+ *
+ * <p>In real time, frames are delivered at their recorded times and the pipeline drops what it
+ * cannot keep up with, like with a camera. Otherwise each frame waits until the previous one went
+ * through detection, so every frame is processed and the run takes as long as the pipeline needs.
+ */
+public class FrameReplayFragment extends Fragment {
+  private static final Logger LOGGER = new Logger();
+
+  /** Receives the recording; everything but {@link #onReplaySizeChosen} on the replay thread. */
+  public interface FrameListener {
+    void onReplaySizeChosen(Size size, int rotation);
+
+    /** Whether the previous frame went all the way through the pipeline. */
+    boolean isReadyForReplayFrame();
+
+    /** The frame is reused once this returns. */
+    void onReplayFrame(FrameRecording.Frame frame);
+
+    void onReplayFinished(int frames, long elapsedNs);
+  }
+
+  private final FrameListener listener;
+  /** The layout identifier to inflate for this Fragment. */
+  private final int layout;
+  private final File file;
+  private final boolean realtime;
+  private boolean sizeChosen;
+  private Thread replayThread;
+
+  public FrameReplayFragment(
+      final FrameListener listener, final int layout, final File file, final boolean realtime) {
+    this.listener = listener;
+    this.layout = layout;
+    this.file = file;
+    this.realtime = realtime;
+  }
+
+  @Override
+  public View onCreateView(
+      final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState) {
+    return inflater.inflate(layout, container, false);
+  }
+
+  @Override
+  public void onResume() {
+    super.onResume();
+    if (!sizeChosen) {
+      try (FrameRecording.Reader reader = new FrameRecording.Reader(new FileInputStream(file))) {
+        listener.onReplaySizeChosen(
+            new Size(reader.getWidth(), reader.getHeight()), reader.getRotation());
+      } catch (final IOException e) {
+        LOGGER.e(e, "Cannot read %s", file);
+        return;
+      }
+      sizeChosen = true;
+    }
+    // Every resume plays the recording from the start.
+    replayThread = new Thread(this::replay, "FrameReplay");
+    replayThread.start();
+  }
+
+  @Override
+  public void onPause() {
+    if (replayThread != null) {
+      replayThread.interrupt();
+      try {
+        replayThread.join();
+      } catch (final InterruptedException e) {
+        LOGGER.e(e, "Exception!");
+      }
+      replayThread = null;
+    }
+    super.onPause();
+  }
+
+  private void replay() {
+    try (FrameRecording.Reader reader = new FrameRecording.Reader(new FileInputStream(file))) {
+      final FrameRecording.Frame frame = new FrameRecording.Frame();
+      long firstTimestampNs = 0;
+      long startNs = 0;
+      int frames = 0;
+      while (!Thread.currentThread().isInterrupted() && reader.next(frame)) {
+        if (frames == 0) {
+          firstTimestampNs = frame.timestampNs;
+          startNs = System.nanoTime();
+        }
+        if (realtime) {
+          final long delayNs = (frame.timestampNs - firstTimestampNs) - (System.nanoTime() - startNs);
+          if (delayNs > 0) {
+            TimeUnit.NANOSECONDS.sleep(delayNs);
+          }
+        } else {
+          waitUntilReady();
+        }
+        listener.onReplayFrame(frame);
+        ++frames;
+      }
+      waitUntilReady(); // The last detection counts towards the run.
+      listener.onReplayFinished(frames, frames == 0 ? 0 : System.nanoTime() - startNs);
+    } catch (final InterruptedException e) {
+      LOGGER.i("Replay of %s stopped", file);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Cannot replay %s", file);
+    }
+  }
+
+  private void waitUntilReady() throws InterruptedException {
+    while (!listener.isReadyForReplayFrame()) {
+      Thread.sleep(1);
+    }
+  }
+}
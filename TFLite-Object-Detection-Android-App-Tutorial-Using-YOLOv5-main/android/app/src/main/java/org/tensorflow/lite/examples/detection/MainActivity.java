@@ -1,5 +1,6 @@
 package org.tensorflow.lite.examples.detection;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.app.ActivityManager;
@@ -7,6 +8,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ConfigurationInfo;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -23,12 +26,20 @@ import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
 import org.tensorflow.lite.examples.detection.env.Utils;
 import org.tensorflow.lite.examples.detection.tflite.Classifier;
+import org.tensorflow.lite.examples.detection.tflite.CpuModeComparison;
+import org.tensorflow.lite.examples.detection.tflite.DetectorFactory;
+import org.tensorflow.lite.examples.detection.tflite.DetectorProvider;
+import org.tensorflow.lite.examples.detection.tflite.TiledDetector;
 import org.tensorflow.lite.examples.detection.tflite.YoloV5Classifier;
 import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -42,32 +53,88 @@ public class MainActivity extends AppCompatActivity {
         // UI 객체 생성
         cameraButton = findViewById(R.id.cameraButton);
         detectButton = findViewById(R.id.detectButton);
+        tiledButton = findViewById(R.id.tiledButton);
+        cpuModesButton = findViewById(R.id.cpuModesButton);
+        benchmarkButton = findViewById(R.id.benchmarkButton);
         imageView = findViewById(R.id.imageView);
 
         // 버튼에 클릭 리스너 설정
         cameraButton.setOnClickListener(v -> startActivity(new Intent(MainActivity.this, DetectorActivity.class)));
+        benchmarkButton.setOnClickListener(v -> startActivity(new Intent(MainActivity.this, BenchmarkActivity.class)));
 
         detectButton.setOnClickListener(v -> {
             Handler handler = new Handler();
 
-            new Thread(() -> {
-                final List<Classifier.Recognition> results = detector.recognizeImage(cropBitmap);
+            // 모델을 불러온 쓰레드에서 실행. 매번 모델 입력 크기로 다시 잘라서 이전 결과의 박스도 지움.
+            detectorExecutor.execute(() -> {
+                final Bitmap bitmap = Utils.processBitmap(sourceBitmap, detector.getInputSize());
+                final List<Classifier.Recognition> results = detector.recognizeImage(bitmap);
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
+                        cropBitmap = bitmap;
                         handleResult(cropBitmap, results);
                     }
                 });
-            }).start();
+            });
 
         });
-        this.sourceBitmap = Utils.getBitmapFromAsset(MainActivity.this, "kite.jpg");
+
+        // 원본 해상도의 이미지를 타일로 나눠서 탐지. 작은 객체(병뚜껑, 캔)를 놓치지 않기 위함.
+        tiledButton.setOnClickListener(v -> {
+            Handler handler = new Handler();
+
+            // Detect 와 같은 쓰레드에서 실행하므로 onDestroy 가 실행 중인 interpreter 를 닫지 않음.
+            detectorExecutor.execute(() -> {
+                try {
+                    final Bitmap displayBitmap = decodeDisplayBitmap(TILED_IMAGE);
+                    final List<Classifier.Recognition> results = detectTiled(displayBitmap.getWidth());
+                    handler.post(() -> handleResult(displayBitmap, results));
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    // 타일 하나라도 실패하면 recognizeTiled 가 RuntimeException 을 던짐.
+                    LOGGER.e(e, "Tiled detection failed");
+                    handler.post(() -> Toast.makeText(
+                            getApplicationContext(), "Tiled detection failed", Toast.LENGTH_SHORT).show());
+                }
+            });
+        });
+
+        // CPU 실행 방식(기본 커널, XNNPACK, FP16)별 속도와 탐지 결과 차이를 비교.
+        cpuModesButton.setOnClickListener(v -> {
+            Handler handler = new Handler();
+            cpuModesButton.setEnabled(false);
+
+            new Thread(() -> {
+                String report;
+                try {
+                    report = compareCpuModes();
+                } catch (IOException e) {
+                    LOGGER.e(e, "CPU mode comparison failed");
+                    report = "Comparison failed: " + e.getMessage();
+                }
+                final String text = report;
+                handler.post(() -> {
+                    cpuModesButton.setEnabled(true);
+                    new AlertDialog.Builder(MainActivity.this)
+                            .setTitle("CPU modes")
+                            .setMessage(text)
+                            .setPositiveButton("OK", null)
+                            .show();
+                });
+            }).start();
+        });
+        try (InputStream input = getResources().openRawResource(TILED_IMAGE)) {
+            this.sourceBitmap = BitmapFactory.decodeStream(input);
+        } catch (IOException e) {
+            LOGGER.e(e, "Exception reading the sample image");
+        }
 
         this.cropBitmap = Utils.processBitmap(sourceBitmap, TF_OD_API_INPUT_SIZE);
 
         this.imageView.setImageBitmap(cropBitmap);
 
         initBox();
+
         ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
         ConfigurationInfo configurationInfo = activityManager.getDeviceConfigurationInfo();
 
@@ -80,17 +147,19 @@ public class MainActivity extends AppCompatActivity {
 
     public static final int TF_OD_API_INPUT_SIZE = 640;
 
-    private static final boolean TF_OD_API_IS_QUANTIZED = false;
-
-    private static final String TF_OD_API_MODEL_FILE = "yolov5s.tflite";
-
-    private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/coco.txt";
+    // 카메라 화면의 기본 모델. Detect, Tiled, CPU modes 모두 이 모델을 씀.
+    private String modelFile;
 
     // Minimum detection confidence to track a detection.
     private static final boolean MAINTAIN_ASPECT = true;
     private Integer sensorOrientation = 90;
 
-    private Classifier detector;
+    // 카메라 화면과 공유하는 classifier 와, cascade 이면 그 중 전체 모델.
+    // 카메라 화면이 바꾼 입력 크기와 백엔드는 DetectorProvider.release 에서 원래대로 돌아옴.
+    private Classifier sharedClassifier;
+    private YoloV5Classifier detector;
+    // 모델 로딩, Detect, Tiled 를 UI 쓰레드 밖에서 차례로 실행. 모델을 닫는 것도 이 쓰레드에서 함.
+    private final ExecutorService detectorExecutor = Executors.newSingleThreadExecutor();
 
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
@@ -103,7 +172,22 @@ public class MainActivity extends AppCompatActivity {
     private Bitmap sourceBitmap;
     private Bitmap cropBitmap;
 
-    private Button cameraButton, detectButton;
+    // 예제 이미지. assets 가 아니라 res/drawable-v24 에 있으므로 원본 파일 그대로 읽음.
+    private static final int TILED_IMAGE = R.drawable.kite;
+
+    // 타일을 동시에 처리할 인터프리터 수.
+    private static final int TILED_POOL_SIZE = 2;
+
+    // 화면에 표시할 이미지의 최대 크기.
+    private static final int TILED_DISPLAY_SIZE = 1024;
+
+    private TiledDetector tiledDetector;
+    private List<YoloV5Classifier> tiledDetectors;
+
+    // CPU 실행 방식 비교에 사용할 쓰레드 수.
+    private static final int CPU_MODES_THREADS = 4;
+
+    private Button cameraButton, detectButton, tiledButton, cpuModesButton, benchmarkButton;
     private ImageView imageView;
 
     private void initBox() {
@@ -125,22 +209,113 @@ public class MainActivity extends AppCompatActivity {
 
         tracker.setFrameConfiguration(TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE, sensorOrientation);
 
-        try {
-            detector =
-                    YoloV5Classifier.create(
-                            getAssets(),
-                            TF_OD_API_MODEL_FILE,
-                            TF_OD_API_LABELS_FILE,
-                            TF_OD_API_IS_QUANTIZED,
-                            TF_OD_API_INPUT_SIZE);
-        } catch (final IOException e) {
-            e.printStackTrace();
-            LOGGER.e(e, "Exception initializing classifier!");
-            Toast toast =
-                    Toast.makeText(
-                            getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-            toast.show();
-            finish();
+        // 카메라 화면의 기본 모델을 공유. 앱 시작 시 미리 불러오지만 아직 불러오는 중일 수 있으므로
+        // 백그라운드에서 기다리고, 준비되면 Detect 버튼을 켬.
+        modelFile = CameraActivity.getDefaultModel(getAssets());
+        detectButton.setEnabled(false);
+        final Handler handler = new Handler();
+        detectorExecutor.execute(() -> {
+            try {
+                if (modelFile == null) {
+                    throw new IOException("No model in assets");
+                }
+                sharedClassifier = DetectorActivity.acquireClassifier(this, modelFile);
+                detector = DetectorActivity.detectorOf(sharedClassifier);
+                handler.post(() -> detectButton.setEnabled(true));
+            } catch (final IOException e) {
+                e.printStackTrace();
+                LOGGER.e(e, "Exception initializing classifier!");
+                handler.post(() -> {
+                    Toast toast =
+                            Toast.makeText(
+                                    getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+                    toast.show();
+                    finish();
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        // 진행 중인 Detect 나 Tiled 가 끝난 뒤 같은 쓰레드에서 돌려주고 닫음.
+        detectorExecutor.execute(() -> {
+            if (sharedClassifier != null) {
+                DetectorProvider.getInstance().release(sharedClassifier);
+                sharedClassifier = null;
+                detector = null;
+            }
+            if (tiledDetector != null) {
+                tiledDetector.close();
+                for (final YoloV5Classifier d : tiledDetectors) {
+                    d.close();
+                }
+                tiledDetector = null;
+            }
+        });
+        detectorExecutor.shutdown();
+        super.onDestroy();
+    }
+
+    // TILED_IMAGE 를 타일 단위로 디코딩해서 탐지하고, 결과를 displayWidth 크기의 좌표로 변환해서 반환.
+    // detectorExecutor 에서만 호출됨.
+    private List<Classifier.Recognition> detectTiled(int displayWidth)
+            throws IOException, InterruptedException {
+        if (tiledDetector == null) {
+            tiledDetectors = DetectorFactory.getDetectors(getAssets(), modelFile, TILED_POOL_SIZE);
+            final int tileSize = tiledDetectors.get(0).getInputSize();
+            tiledDetector = new TiledDetector(tiledDetectors, tileSize, TiledDetector.DEFAULT_OVERLAP);
+        }
+
+        final List<Classifier.Recognition> results;
+        final int imageWidth;
+        try (InputStream input = getResources().openRawResource(TILED_IMAGE)) {
+            final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(input, false);
+            try {
+                imageWidth = decoder.getWidth();
+                results = tiledDetector.recognizeTiled(decoder);
+            } finally {
+                decoder.recycle();
+            }
+        }
+
+        final float scale = displayWidth / (float) imageWidth;
+        final Matrix imageToDisplay = new Matrix();
+        imageToDisplay.setScale(scale, scale);
+        for (final Classifier.Recognition result : results) {
+            final RectF location = result.getLocation();
+            imageToDisplay.mapRect(location);
+            result.setLocation(location);
+        }
+        return results;
+    }
+
+    // assets 의 모든 jpg 를 고정 이미지 세트로 사용.
+    private String compareCpuModes() throws IOException {
+        final List<Bitmap> images = new ArrayList<>();
+        for (final String asset : getAssets().list("")) {
+            if (asset.endsWith(".jpg")) {
+                images.add(Utils.getBitmapFromAsset(this, asset));
+            }
+        }
+        return CpuModeComparison.compare(getAssets(), modelFile, images, CPU_MODES_THREADS);
+    }
+
+    // 전체 이미지를 메모리에 올리지 않도록 inSampleSize 로 축소해서 디코딩.
+    private Bitmap decodeDisplayBitmap(int resId) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream input = getResources().openRawResource(resId)) {
+            BitmapFactory.decodeStream(input, null, options);
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= TILED_DISPLAY_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        options.inMutable = true;
+        try (InputStream input = getResources().openRawResource(resId)) {
+            return BitmapFactory.decodeStream(input, null, options);
         }
     }
 
@@ -28,6 +28,8 @@ import java.util.Vector;
 public class BorderedText {
   private final Paint interiorPaint;
   private final Paint exteriorPaint;
+  // Reused for the label backgrounds, which are drawn on every frame.
+  private final Paint backgroundPaint = new Paint();
 
   private final float textSize;
 
@@ -85,10 +87,10 @@ public class BorderedText {
 
     float width = exteriorPaint.measureText(text);
     float textSize = exteriorPaint.getTextSize();
-    Paint paint = new Paint(bgPaint);
-    paint.setStyle(Paint.Style.FILL);
-    paint.setAlpha(160);
-    canvas.drawRect(posX, (posY + (int) (textSize)), (posX + (int) (width)), posY, paint);
+    backgroundPaint.set(bgPaint);
+    backgroundPaint.setStyle(Paint.Style.FILL);
+    backgroundPaint.setAlpha(160);
+    canvas.drawRect(posX, (posY + (int) (textSize)), (posX + (int) (width)), posY, backgroundPaint);
 
     canvas.drawText(text, posX, (posY + textSize), interiorPaint);
   }
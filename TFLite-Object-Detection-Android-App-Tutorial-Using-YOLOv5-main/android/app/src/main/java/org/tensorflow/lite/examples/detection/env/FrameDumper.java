@@ -0,0 +1,254 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+
+/**
+ * Saves sampled detector inputs, with what was detected on them, on a background thread.
+ *
+ * <p>A {@link Policy} picks the frames. Their pixels are copied into one of a few pooled buffers,
+ * which is all the caller waits for; encoding and writing happen on the dump thread. When every
+ * buffer is still waiting for the disk the frame is dropped, so the pipeline being debugged keeps
+ * its timing. Each dump is {@code <timestamp>-<reason>.<jpg|png|rgba>} plus a {@code .txt} with
+ * one {@code title confidence left top right bottom} line per detection, in the image's pixels.
+ */
+public final class FrameDumper {
+  private static final Logger LOGGER = new Logger();
+
+  private static final int POOL_SIZE = 3;
+  private static final int JPEG_QUALITY = 90;
+  /** Stops dumping after this many frames written, so a long session cannot fill the storage. */
+  private static final int MAX_DUMPS = 500;
+
+  public enum Format {
+    /** Fast to encode; enough to look at a failure. */
+    JPEG,
+    /** Lossless, but takes tens of milliseconds per frame on the dump thread. */
+    PNG,
+    /**
+     * The ARGB_8888 pixels as {@link Bitmap#copyPixelsToBuffer} lays them out, with no encoding
+     * at all; the size is in the file name.
+     */
+    RAW
+  }
+
+  /** Decides on the inference thread whether a frame is dumped. */
+  public interface Policy {
+    /** Returns why the frame should be dumped, for the file name, or null to skip it. */
+    String shouldDump(long frame, List<Recognition> results);
+  }
+
+  /** Every {@code n}-th frame, whatever was detected. */
+  public static Policy everyNthFrame(final int n) {
+    return (frame, results) -> frame % n == 0 ? "sample" : null;
+  }
+
+  /**
+   * Frames with a detection in {@code [minConfidence, maxConfidence)}: objects the detector was
+   * unsure about, typically just under the display threshold.
+   */
+  public static Policy onLowConfidence(final float minConfidence, final float maxConfidence) {
+    return (frame, results) -> {
+      for (final Recognition result : results) {
+        if (result.getConfidence() >= minConfidence && result.getConfidence() < maxConfidence) {
+          return "lowconf";
+        }
+      }
+      return null;
+    };
+  }
+
+  /**
+   * Frames whose set of classes at or above {@code minConfidence} differs from the previous
+   * frame's, where objects appear, vanish or flip between classes.
+   */
+  public static Policy onClassChange(final float minConfidence) {
+    return new Policy() {
+      private Set<String> previous = new HashSet<>();
+      private Set<String> current = new HashSet<>();
+
+      @Override
+      public String shouldDump(final long frame, final List<Recognition> results) {
+        current.clear();
+        for (final Recognition result : results) {
+          if (result.getConfidence() >= minConfidence) {
+            current.add(result.getTitle());
+          }
+        }
+        final boolean changed = frame > 0 && !current.equals(previous);
+        final Set<String> swap = previous;
+        previous = current;
+        current = swap;
+        return changed ? "classchange" : null;
+      }
+    };
+  }
+
+  /** The reason of the first policy that picks the frame. */
+  public static Policy anyOf(final Policy... policies) {
+    return (frame, results) -> {
+      // Every policy sees every frame, so the stateful ones stay in step.
+      String reason = null;
+      for (final Policy policy : policies) {
+        final String r = policy.shouldDump(frame, results);
+        if (reason == null) {
+          reason = r;
+        }
+      }
+      return reason;
+    };
+  }
+
+  private static final class Dump {
+    ByteBuffer pixels;
+    int width;
+    int height;
+    long timestamp;
+    String reason;
+    String detections;
+  }
+
+  private final File dir;
+  private final Format format;
+  private final Policy policy;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final BlockingQueue<Dump> spare = new ArrayBlockingQueue<>(POOL_SIZE);
+  /** Frames written successfully; incremented on the dump thread. */
+  private final AtomicInteger written = new AtomicInteger();
+  /** Only touched on the dump thread. */
+  private Bitmap encodeBitmap;
+  private boolean closed;
+  private long frames;
+  private int dropped;
+
+  public FrameDumper(final File dir, final Format format, final Policy policy) {
+    this.dir = dir;
+    this.format = format;
+    this.policy = policy;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      LOGGER.w("Cannot create %s", dir);
+    }
+    for (int i = 0; i < POOL_SIZE; ++i) {
+      spare.add(new Dump());
+    }
+  }
+
+  /**
+   * Offers the detector input of one frame and its results, before their locations are mapped
+   * to the preview. Only the frames the policy picks are copied; {@code bitmap} must be
+   * ARGB_8888.
+   */
+  public synchronized void offer(final Bitmap bitmap, final List<Recognition> results, final long timestamp) {
+    if (closed) {
+      return;
+    }
+    final String reason = policy.shouldDump(frames++, results);
+    // Dumps still queued count too, so the cap is not overshot by up to POOL_SIZE.
+    if (reason == null || written.get() + POOL_SIZE - spare.size() >= MAX_DUMPS) {
+      return;
+    }
+    final Dump dump = spare.poll();
+    if (dump == null) {
+      ++dropped;
+      return;
+    }
+    final int size = bitmap.getByteCount();
+    if (dump.pixels == null || dump.pixels.capacity() < size) {
+      dump.pixels = ByteBuffer.allocateDirect(size);
+    }
+    dump.pixels.clear();
+    bitmap.copyPixelsToBuffer(dump.pixels);
+    dump.pixels.flip();
+    dump.width = bitmap.getWidth();
+    dump.height = bitmap.getHeight();
+    dump.timestamp = timestamp;
+    dump.reason = reason;
+    dump.detections = format(results);
+    executor.execute(() -> {
+      try {
+        write(dump);
+        written.incrementAndGet();
+      } catch (final IOException e) {
+        LOGGER.e(e, "Cannot dump frame %d", dump.timestamp);
+      } finally {
+        spare.add(dump);
+      }
+    });
+  }
+
+  // The results are mapped in place after offer returns, so they are formatted here.
+  private static String format(final List<Recognition> results) {
+    final StringBuilder text = new StringBuilder();
+    for (final Recognition result : results) {
+      final RectF box = result.getLocation();
+      text.append(String.format(Locale.US, "%s %.3f %.1f %.1f %.1f %.1f%n",
+          result.getTitle().replace(' ', '_'), result.getConfidence(),
+          box.left, box.top, box.right, box.bottom));
+    }
+    return text.toString();
+  }
+
+  private void write(final Dump dump) throws IOException {
+    final String name = dump.timestamp + "-" + dump.reason;
+    try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, name + ".txt")), "UTF-8")) {
+      out.write(dump.detections);
+    }
+    if (format == Format.RAW) {
+      final File file = new File(dir, name + "-" + dump.width + "x" + dump.height + ".rgba");
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        out.getChannel().write(dump.pixels);
+      }
+      return;
+    }
+    if (encodeBitmap == null
+        || encodeBitmap.getWidth() != dump.width || encodeBitmap.getHeight() != dump.height) {
+      if (encodeBitmap != null) {
+        encodeBitmap.recycle();
+      }
+      encodeBitmap = Bitmap.createBitmap(dump.width, dump.height, Bitmap.Config.ARGB_8888);
+    }
+    encodeBitmap.copyPixelsFromBuffer(dump.pixels);
+    final boolean jpeg = format == Format.JPEG;
+    try (OutputStream out = new BufferedOutputStream(
+        new FileOutputStream(new File(dir, name + (jpeg ? ".jpg" : ".png"))))) {
+      encodeBitmap.compress(jpeg ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG,
+          jpeg ? JPEG_QUALITY : 100, out);
+    }
+  }
+
+  /** Writes the dumps still queued. */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdown();
+    try {
+      if (executor.awaitTermination(5, TimeUnit.SECONDS) && encodeBitmap != null) {
+        encodeBitmap.recycle();
+      }
+    } catch (final InterruptedException e) {
+      LOGGER.e(e, "Could not finish the dumps in %s", dir);
+    }
+    LOGGER.i("Dumped %d of %d frames to %s, dropped %d", written.get(), frames, dir, dropped);
+  }
+}
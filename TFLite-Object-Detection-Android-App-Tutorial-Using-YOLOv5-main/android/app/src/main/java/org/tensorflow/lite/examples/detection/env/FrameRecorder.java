@@ -0,0 +1,103 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import org.tensorflow.lite.examples.detection.core.FrameRecording;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends camera frames to a {@link FrameRecording} file on a background thread.
+ *
+ * <p>Each frame is copied into one of a few spare frames before the camera buffer is handed back.
+ * When all of them are still waiting for the disk, the frame is left out of the recording rather
+ * than holding up the camera; the count of skipped frames is logged when the file is closed.
+ */
+public final class FrameRecorder {
+  private static final Logger LOGGER = new Logger();
+
+  private static final int MAX_PENDING_FRAMES = 4;
+
+  private final File file;
+  private final FrameRecording.Writer writer;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final BlockingQueue<FrameRecording.Frame> spare = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+  private volatile boolean failed;
+  private boolean closed;
+  private int offered;
+  private int skipped;
+
+  public FrameRecorder(final File file, final int width, final int height, final int rotation)
+      throws IOException {
+    this.file = file;
+    this.writer = new FrameRecording.Writer(new FileOutputStream(file), width, height, rotation);
+    for (int i = 0; i < MAX_PENDING_FRAMES; ++i) {
+      spare.add(new FrameRecording.Frame());
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Queues a copy of a frame. {@code planes} holds one NV21 buffer or the Y, U and V planes, as
+   * {@link FrameRecording} describes.
+   */
+  public synchronized void offer(final long timestampNs, final byte[][] planes, final int planeCount,
+      final int yRowStride, final int uvRowStride, final int uvPixelStride) {
+    if (closed) {
+      return;
+    }
+    ++offered;
+    final FrameRecording.Frame frame = failed ? null : spare.poll();
+    if (frame == null) {
+      ++skipped;
+      return;
+    }
+    frame.timestampNs = timestampNs;
+    frame.yRowStride = yRowStride;
+    frame.uvRowStride = uvRowStride;
+    frame.uvPixelStride = uvPixelStride;
+    frame.planeCount = planeCount;
+    for (int i = 0; i < planeCount; ++i) {
+      final int length = planes[i].length;
+      if (frame.planes[i] == null || frame.planes[i].length < length) {
+        frame.planes[i] = new byte[length];
+      }
+      System.arraycopy(planes[i], 0, frame.planes[i], 0, length);
+      frame.planeLengths[i] = length;
+    }
+    executor.execute(() -> {
+      try {
+        writer.write(frame);
+      } catch (final IOException e) {
+        LOGGER.e(e, "Recording to %s failed", file);
+        failed = true;
+      } finally {
+        spare.add(frame);
+      }
+    });
+  }
+
+  /** Writes the frames still queued and closes the file. */
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      writer.close();
+    } catch (final InterruptedException | IOException e) {
+      LOGGER.e(e, "Could not finish %s", file);
+    }
+    LOGGER.i("Recorded %d of %d frames to %s", offered - skipped, offered, file);
+  }
+}
@@ -20,29 +20,16 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import org.tensorflow.lite.examples.detection.core.YuvConverter;
 
 /** Utility class for manipulating images. */
 public class ImageUtils {
-  // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
-  // are normalized to eight bits.
-  static final int kMaxChannelValue = 262143;
-
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
-  /**
-   * Utility method to compute the allocated size in bytes of a YUV420SP image of the given
-   * dimensions.
-   */
+  /** See {@link YuvConverter#getYUVByteSize}. */
   public static int getYUVByteSize(final int width, final int height) {
-    // The luminance plane requires 1 byte per pixel.
-    final int ySize = width * height;
-
-    // The UV plane works on 2x2 blocks, so dimensions with odd size must be rounded up.
-    // Each 2x2 block takes 2 bytes to encode, one each for U and V.
-    final int uvSize = ((width + 1) / 2) * ((height + 1) / 2) * 2;
-
-    return ySize + uvSize;
+    return YuvConverter.getYUVByteSize(width, height);
   }
 
   /**
@@ -85,49 +72,12 @@ public class ImageUtils {
     }
   }
 
+  /** See {@link YuvConverter#convertYUV420SPToARGB8888}. */
   public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
-    final int frameSize = width * height;
-    for (int j = 0, yp = 0; j < height; j++) {
-      int uvp = frameSize + (j >> 1) * width;
-      int u = 0;
-      int v = 0;
-
-      for (int i = 0; i < width; i++, yp++) {
-        int y = 0xff & input[yp];
-        if ((i & 1) == 0) {
-          v = 0xff & input[uvp++];
-          u = 0xff & input[uvp++];
-        }
-
-        output[yp] = YUV2RGB(y, u, v);
-      }
-    }
-  }
-
-  private static int YUV2RGB(int y, int u, int v) {
-    // Adjust and check YUV values
-    y = (y - 16) < 0 ? 0 : (y - 16);
-    u -= 128;
-    v -= 128;
-
-    // This is the floating point equivalent. We do the conversion in integer
-    // because some Android devices do not have floating point in hardware.
-    // nR = (int)(1.164 * nY + 2.018 * nU);
-    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-    // nB = (int)(1.164 * nY + 1.596 * nV);
-    int y1192 = 1192 * y;
-    int r = (y1192 + 1634 * v);
-    int g = (y1192 - 833 * v - 400 * u);
-    int b = (y1192 + 2066 * u);
-
-    // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
-    r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
-    g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
-    b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
-
-    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    YuvConverter.convertYUV420SPToARGB8888(input, width, height, output);
   }
 
+  /** See {@link YuvConverter#convertYUV420ToARGB8888}. */
   public static void convertYUV420ToARGB8888(
       byte[] yData,
       byte[] uData,
@@ -138,17 +88,8 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
-      int pY = yRowStride * j;
-      int pUV = uvRowStride * (j >> 1);
-
-      for (int i = 0; i < width; i++) {
-        int uv_offset = pUV + (i >> 1) * uvPixelStride;
-
-        out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
-      }
-    }
+    YuvConverter.convertYUV420ToARGB8888(
+        yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out);
   }
 
   /**
@@ -16,14 +16,44 @@ limitations under the License.
 package org.tensorflow.lite.examples.detection.env;
 
 import android.util.Log;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
-
-/** Wrapper for the platform log function, allows convenient message prefixing and log disabling. */
+import org.tensorflow.lite.examples.detection.BuildConfig;
+
+/**
+ * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ *
+ * <p>Messages below the build type's {@code MIN_LOG_LEVEL} are never logged. The format is only
+ * applied once a message passes the level checks, but the arguments are still boxed into an array
+ * at the call site, so per-frame code wraps calls in {@code if (Logger.DEBUG)}, which the compiler
+ * removes from release builds, or records an {@link #event} instead.
+ *
+ * <p>Events go into a fixed ring of the last {@link #EVENT_CAPACITY} numeric records without
+ * allocating or formatting anything; {@link #dumpEvents} formats them on demand.
+ */
 public final class Logger {
   private static final String DEFAULT_TAG = "tensorflow";
   private static final int DEFAULT_MIN_LOG_LEVEL = Log.DEBUG;
 
+  /** Lowest level this build logs at, from {@code buildConfigField MIN_LOG_LEVEL}. */
+  public static final int BUILD_MIN_LOG_LEVEL = BuildConfig.MIN_LOG_LEVEL;
+  /** Whether debug messages can be logged at all in this build; a compile-time constant. */
+  public static final boolean DEBUG = BUILD_MIN_LOG_LEVEL <= Log.DEBUG;
+  /** Whether verbose messages can be logged at all in this build; a compile-time constant. */
+  public static final boolean VERBOSE = BUILD_MIN_LOG_LEVEL <= Log.VERBOSE;
+
+  public static final int EVENT_CAPACITY = 1024;
+  // Per event: time, event id, and two arguments.
+  private static final int EVENT_FIELDS = 4;
+  private static final long[] events = new long[EVENT_CAPACITY * EVENT_FIELDS];
+  private static final List<String> eventFormats = new ArrayList<>();
+  private static long eventCount;
+
   // Classes to be ignored when examining the stack trace
   private static final Set<String> IGNORED_CLASS_NAMES;
 
@@ -117,7 +147,46 @@ public final class Logger {
   }
 
   public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
+    return logLevel >= BUILD_MIN_LOG_LEVEL
+        && (logLevel >= minLogLevel || Log.isLoggable(tag, logLevel));
+  }
+
+  /**
+   * Registers the format of an event, with up to two {@code %d} for its arguments, and returns
+   * the id to {@link #event} it with. Call once, into a static field.
+   */
+  public static synchronized int registerEvent(final String format) {
+    eventFormats.add(format);
+    return eventFormats.size() - 1;
+  }
+
+  public static void event(final int id) {
+    event(id, 0, 0);
+  }
+
+  public static void event(final int id, final long a) {
+    event(id, a, 0);
+  }
+
+  /** Records an event in the ring, overwriting the oldest one once it is full. */
+  public static synchronized void event(final int id, final long a, final long b) {
+    final int offset = (int) (eventCount++ % EVENT_CAPACITY) * EVENT_FIELDS;
+    events[offset] = System.nanoTime();
+    events[offset + 1] = id;
+    events[offset + 2] = a;
+    events[offset + 3] = b;
+  }
+
+  /** Writes the events in the ring, oldest first, one per line with its time in milliseconds. */
+  public static synchronized void dumpEvents(final Writer out) throws IOException {
+    final long first = Math.max(0, eventCount - EVENT_CAPACITY);
+    for (long i = first; i < eventCount; ++i) {
+      final int offset = (int) (i % EVENT_CAPACITY) * EVENT_FIELDS;
+      out.write(String.format(Locale.US, "%.3f ", events[offset] / 1e6));
+      out.write(String.format(Locale.US, eventFormats.get((int) events[offset + 1]),
+          events[offset + 2], events[offset + 3]));
+      out.write('\n');
+    }
   }
 
   private String toMessage(final String format, final Object... args) {
@@ -0,0 +1,146 @@
+package org.tensorflow.lite.examples.detection.env;
+
+import android.os.Trace;
+
+import com.google.gson.GsonBuilder;
+
+import org.tensorflow.lite.examples.detection.core.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide latency histograms for each stage of the camera pipeline, plus frame counters.
+ *
+ * <p>A stage is timed with {@link #begin} and {@link #end} on the same thread; both also open and
+ * close an {@link Trace} section named after the stage, so the stages line up with the system
+ * trace in Perfetto or systrace. Timing costs two {@link System#nanoTime} calls and a few atomic
+ * increments, so it stays on in release builds.
+ */
+public final class PipelineMetrics {
+  public enum Stage {
+    ACQUIRE("acquire"),
+    YUV_CONVERT("yuv"),
+    CROP("crop"),
+    PACK("pack"),
+    INFERENCE("inference"),
+    DECODE("decode"),
+    NMS("nms"),
+    TRACK("track"),
+    DRAW("draw"),
+    /**
+     * From the camera capture time of a frame to the overlay draw that first shows its boxes.
+     * Recorded with {@link #record}, since it spans threads.
+     */
+    END_TO_END("e2e");
+
+    final String label;
+
+    Stage(final String label) {
+      this.label = label;
+    }
+  }
+
+  private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+  public static PipelineMetrics get() {
+    return INSTANCE;
+  }
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+  private final AtomicLong framesProcessed = new AtomicLong();
+  private final AtomicLong framesDropped = new AtomicLong();
+  private volatile long sinceMs = System.currentTimeMillis();
+
+  private PipelineMetrics() {
+    for (int i = 0; i < histograms.length; ++i) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /** Starts timing {@code stage}; pass the result to {@link #end}. */
+  public long begin(final Stage stage) {
+    Trace.beginSection(stage.label);
+    return System.nanoTime();
+  }
+
+  public void end(final Stage stage, final long startNs) {
+    histograms[stage.ordinal()].recordNanos(System.nanoTime() - startNs);
+    Trace.endSection();
+  }
+
+  /** Records a stage timed elsewhere, without a trace section. */
+  public void record(final Stage stage, final long nanos) {
+    histograms[stage.ordinal()].recordNanos(nanos);
+  }
+
+  public LatencyHistogram getHistogram(final Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /** A frame went through detection. */
+  public void frameProcessed() {
+    framesProcessed.incrementAndGet();
+  }
+
+  /** A camera frame was skipped because the previous one was still being processed. */
+  public void frameDropped() {
+    framesDropped.incrementAndGet();
+  }
+
+  public void reset() {
+    for (final LatencyHistogram histogram : histograms) {
+      histogram.reset();
+    }
+    framesProcessed.set(0);
+    framesDropped.set(0);
+    sinceMs = System.currentTimeMillis();
+  }
+
+  /** One line per stage that has samples: p50/p95/p99 in ms, then the frame counters. */
+  public String getStatString() {
+    return getStatString(Stage.values()) + String.format("\nframes %d, dropped %d",
+        framesProcessed.get(), framesDropped.get());
+  }
+
+  /** Like {@link #getStatString()}, limited to {@code stages} and without the frame counters. */
+  public String getStatString(final Stage... stages) {
+    final StringBuilder stats = new StringBuilder();
+    for (final Stage stage : stages) {
+      final LatencyHistogram histogram = histograms[stage.ordinal()];
+      if (histogram.getCount() == 0) {
+        continue;
+      }
+      if (stats.length() > 0) {
+        stats.append('\n');
+      }
+      stats.append(String.format("%-9s %5.1f %5.1f %5.1f ms", stage.label,
+          histogram.getPercentileMs(50), histogram.getPercentileMs(95), histogram.getPercentileMs(99)));
+    }
+    return stats.toString();
+  }
+
+  /** All stages and counters as JSON, for attaching to bug reports and comparing runs. */
+  public String toJson() {
+    final Map<String, Object> root = new LinkedHashMap<>();
+    root.put("sinceMs", sinceMs);
+    root.put("untilMs", System.currentTimeMillis());
+    root.put("framesProcessed", framesProcessed.get());
+    root.put("framesDropped", framesDropped.get());
+    final Map<String, Object> stages = new LinkedHashMap<>();
+    for (final Stage stage : Stage.values()) {
+      final LatencyHistogram histogram = histograms[stage.ordinal()];
+      final Map<String, Object> values = new LinkedHashMap<>();
+      values.put("count", histogram.getCount());
+      values.put("meanMs", histogram.getMeanMs());
+      values.put("p50Ms", histogram.getPercentileMs(50));
+      values.put("p95Ms", histogram.getPercentileMs(95));
+      values.put("p99Ms", histogram.getPercentileMs(99));
+      values.put("maxMs", histogram.getMaxMs());
+      stages.put(stage.label, values);
+    }
+    root.put("stages", stages);
+    return new GsonBuilder().setPrettyPrinting().create().toJson(root);
+  }
+}
@@ -7,10 +7,12 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.os.Environment;
 import android.util.Log;
 
 import org.tensorflow.lite.examples.detection.MainActivity;
+import org.tensorflow.lite.examples.detection.core.Boxes;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -55,6 +57,11 @@ public class Utils {
         return (float) (1. / (1. + Math.exp(-x)));
     }
 
+    /** Intersection over union of two boxes. */
+    public static float iou(final RectF a, final RectF b) {
+        return Boxes.iou(a.left, a.top, a.right, a.bottom, b.left, b.top, b.right, b.bottom);
+    }
+
 //    public static Bitmap scale(Context context, String filePath) {
 //        AssetManager assetManager = context.getAssets();
 //
@@ -0,0 +1,141 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
+
+import org.tensorflow.lite.examples.detection.BuildConfig;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the fastest delegate and thread count for a model on this device.
+ *
+ * <p>Every candidate runs a short warm-up and a few timed inferences on the bundled test image.
+ * The winner is stored in shared preferences under a key made of the device model, the app
+ * version and the model file, so the benchmark runs once per device and model version.
+ */
+public class BackendCalibrator {
+    private static final Logger LOGGER = new Logger();
+
+    private static final String PREFS_NAME = "backend_calibration";
+    private static final String TEST_IMAGE = "test.jpg";
+    private static final int[] CPU_THREADS = new int[]{1, 2, 4};
+    private static final int WARMUP_RUNS = 2;
+    private static final int TIMED_RUNS = 5;
+
+    /** One of the DetectorFactory.DEVICE_* delegates and a thread count. */
+    public static class Backend {
+        public final String device;
+        public final int numThreads;
+        public final long latencyMs;
+
+        Backend(final String device, final int numThreads, final long latencyMs) {
+            this.device = device;
+            this.numThreads = numThreads;
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return device + " x" + numThreads + " " + latencyMs + "ms";
+        }
+    }
+
+    /** Returns the stored result for {@code modelFilename}, or null if it was never calibrated. */
+    public static Backend load(final Context context, final String modelFilename) throws IOException {
+        final SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final String key = key(context, modelFilename);
+        final String device = prefs.getString(key + "/device", null);
+        if (device == null) {
+            return null;
+        }
+        return new Backend(device, prefs.getInt(key + "/threads", 1), prefs.getLong(key + "/latency", 0));
+    }
+
+    /**
+     * Benchmarks every available delegate and thread count and stores the fastest one.
+     * Takes a few seconds, so it must not run on the UI thread.
+     */
+    public static Backend calibrate(final Context context, final String modelFilename) throws IOException {
+        final List<Backend> candidates = new ArrayList<>();
+        for (final String device : DetectorFactory.CPU_DEVICES) {
+            for (final int threads : CPU_THREADS) {
+                candidates.add(new Backend(device, threads, 0));
+            }
+        }
+        candidates.add(new Backend(DetectorFactory.DEVICE_GPU, 1, 0));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            candidates.add(new Backend(DetectorFactory.DEVICE_NNAPI, 1, 0));
+        }
+
+        final Bitmap image = Utils.getBitmapFromAsset(context, TEST_IMAGE);
+        Backend best = null;
+        for (final Backend candidate : candidates) {
+            final long latencyMs;
+            try {
+                latencyMs = measure(context, modelFilename, candidate, image);
+            } catch (RuntimeException e) {
+                // Delegates throw when the device or the model's ops are not supported.
+                LOGGER.w(e, "Skipping %s x%d", candidate.device, candidate.numThreads);
+                continue;
+            }
+            LOGGER.i("Calibration %s x%d: %dms", candidate.device, candidate.numThreads, latencyMs);
+            if (best == null || latencyMs < best.latencyMs) {
+                best = new Backend(candidate.device, candidate.numThreads, latencyMs);
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        final String key = key(context, modelFilename);
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(key + "/device", best.device)
+                .putInt(key + "/threads", best.numThreads)
+                .putLong(key + "/latency", best.latencyMs)
+                .apply();
+        LOGGER.i("Calibrated %s: %s", modelFilename, best);
+        return best;
+    }
+
+    // Median of the timed runs, so a single GC pause or scheduler hiccup does not decide.
+    private static long measure(final Context context, final String modelFilename, final Backend backend,
+                                final Bitmap image) throws IOException {
+        final YoloV5Classifier detector = DetectorFactory.getDetector(context.getAssets(), modelFilename);
+        try {
+            DetectorFactory.applyBackend(detector, backend.device, backend.numThreads);
+            final Bitmap input = Utils.processBitmap(image, detector.getInputSize());
+            for (int i = 0; i < WARMUP_RUNS; ++i) {
+                detector.recognizeImage(input);
+            }
+            final long[] times = new long[TIMED_RUNS];
+            for (int i = 0; i < TIMED_RUNS; ++i) {
+                final long start = SystemClock.uptimeMillis();
+                detector.recognizeImage(input);
+                times[i] = SystemClock.uptimeMillis() - start;
+            }
+            Arrays.sort(times);
+            return times[TIMED_RUNS / 2];
+        } finally {
+            detector.close();
+        }
+    }
+
+    // The model file length stands in for a model version, so a replaced model is re-calibrated.
+    private static String key(final Context context, final String modelFilename) throws IOException {
+        final long modelLength;
+        try (AssetFileDescriptor fd = context.getAssets().openFd(modelFilename)) {
+            modelLength = fd.getLength();
+        }
+        return Build.MODEL + "/" + BuildConfig.VERSION_CODE + "/" + modelFilename + "/" + modelLength;
+    }
+}
@@ -0,0 +1,132 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Switches models and delegates without stalling the camera pipeline.
+ *
+ * <p>New interpreters are built on a separate thread while the current one keeps serving frames.
+ * The result is then posted to the inference thread, so it replaces the old one between two
+ * frames and a frame never sees a half-switched detector. Requests run in the order they were
+ * made; a request that is overtaken before it starts is skipped. A result the stopped inference
+ * thread no longer accepts is closed and reported as failed.
+ */
+public class BackendManager {
+    private static final Logger LOGGER = new Logger();
+
+    /** Receives the result of a request. */
+    public interface Callback<T> {
+        /** Called on the inference thread; the previous classifier or backend can be released here. */
+        void onReady(T prepared);
+
+        /** Called on the preparing thread; whatever was in use before stays in use. */
+        void onFailed(Exception e);
+    }
+
+    /** The thread that runs {@link Classifier#recognizeImage}. */
+    public interface InferenceThread {
+        /** Queues {@code task} behind the frame being processed; false if the thread is stopped. */
+        boolean post(Runnable task);
+    }
+
+    /** Extracts the detector whose backend is switched from a loaded classifier. */
+    public interface Detector<T> {
+        YoloV5Classifier of(T classifier);
+    }
+
+    private final ExecutorService preparer = Executors.newSingleThreadExecutor();
+    private final InferenceThread inference;
+    private final AtomicInteger lastRequest = new AtomicInteger();
+    private final AtomicInteger lastModelRequest = new AtomicInteger();
+
+    // The detector that will be in use once all submitted requests are installed.
+    // Only accessed on the preparer thread.
+    private YoloV5Classifier target;
+
+    /**
+     * @param inference runs tasks serially with {@link Classifier#recognizeImage} calls
+     * @param current   the detector in use right now
+     */
+    public BackendManager(final InferenceThread inference, final YoloV5Classifier current) {
+        this.inference = inference;
+        preparer.execute(() -> target = current);
+    }
+
+    /**
+     * Loads a new classifier with {@code loader} off the inference thread.
+     *
+     * @param detector picks the {@link YoloV5Classifier} that later {@link #switchBackend} calls act on
+     */
+    public <T extends Classifier> void loadModel(final Callable<T> loader, final Detector<T> detector,
+                                                 final Callback<T> callback) {
+        final int request = lastRequest.incrementAndGet();
+        lastModelRequest.set(request);
+        preparer.execute(() -> {
+            // A newer model load replaces this one completely.
+            if (request != lastModelRequest.get()) {
+                return;
+            }
+            final T classifier;
+            try {
+                classifier = loader.call();
+            } catch (Exception e) {
+                LOGGER.e(e, "Exception loading model");
+                callback.onFailed(e);
+                return;
+            }
+            // Nothing will install the classifier once the inference thread is stopped.
+            if (!inference.post(() -> callback.onReady(classifier))) {
+                classifier.close();
+                callback.onFailed(new IllegalStateException("Inference thread is stopped"));
+                return;
+            }
+            target = detector.of(classifier);
+        });
+    }
+
+    /** Moves the current detector to {@code device} with {@code numThreads}, keeping the model. */
+    public void switchBackend(final String device, final int numThreads,
+                              final Callback<YoloV5Classifier> callback) {
+        final int request = lastRequest.incrementAndGet();
+        preparer.execute(() -> {
+            // Any newer request, a model load included, already carries the latest device.
+            if (request != lastRequest.get() || target == null) {
+                return;
+            }
+            final YoloV5Classifier detector = target;
+            final YoloV5Classifier.Backend backend;
+            try {
+                backend = detector.prepareBackend(device, numThreads);
+            } catch (RuntimeException e) {
+                LOGGER.e(e, "Exception preparing %s", device);
+                callback.onFailed(e);
+                return;
+            }
+            if (!inference.post(() -> {
+                detector.swapBackend(backend);
+                callback.onReady(detector);
+            })) {
+                backend.close();
+                callback.onFailed(new IllegalStateException("Inference thread is stopped"));
+            }
+        });
+    }
+
+    /**
+     * Runs {@code task} on the preparing thread, after the requests made before it. For slow work
+     * that must not hold up frames, such as {@link BackendCalibrator#calibrate}.
+     */
+    public void execute(final Runnable task) {
+        preparer.execute(task);
+    }
+
+    /** Stops the preparing thread. Detectors are owned, and closed, by the caller. */
+    public void close() {
+        preparer.shutdownNow();
+    }
+}
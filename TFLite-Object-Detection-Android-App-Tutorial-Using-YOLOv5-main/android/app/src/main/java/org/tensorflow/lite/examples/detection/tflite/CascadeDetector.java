@@ -0,0 +1,138 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Two-stage detector: a small gate model looks at a downscaled copy of every frame, and the full
+ * detector only runs when the gate's highest objectness reaches a threshold.
+ *
+ * <p>Both stages share the preprocessing of the caller: the gate input is scaled from the same
+ * cropped bitmap the detector consumes, so the camera frame is converted and cropped only once.
+ */
+public class CascadeDetector implements Classifier {
+    private final YoloV5Classifier gate;
+    private final YoloV5Classifier detector;
+    private final float gateThreshold;
+
+    private final Bitmap gateBitmap;
+    private final Canvas gateCanvas;
+    private final Matrix cropToGate = new Matrix();
+    private final Paint scalePaint = new Paint();
+    private int cropSize = -1;
+
+    private boolean ranDetector;
+
+    // Per-stage statistics.
+    private long frames;
+    private long detectorRuns;
+    private long gateNs;
+    private long detectorNs;
+
+    public CascadeDetector(final YoloV5Classifier gate, final YoloV5Classifier detector,
+                           final float gateThreshold) {
+        this.gate = gate;
+        this.detector = detector;
+        this.gateThreshold = gateThreshold;
+        final int gateSize = gate.getInputSize();
+        this.gateBitmap = Bitmap.createBitmap(gateSize, gateSize, Bitmap.Config.ARGB_8888);
+        this.gateCanvas = new Canvas(gateBitmap);
+        this.scalePaint.setFilterBitmap(true);
+    }
+
+    public YoloV5Classifier getGate() {
+        return gate;
+    }
+
+    public YoloV5Classifier getDetector() {
+        return detector;
+    }
+
+    /** Returns whether the full detector ran on the last frame passed to {@link #recognizeImage}. */
+    public boolean ranDetector() {
+        return ranDetector;
+    }
+
+    /**
+     * @param bitmap a crop at the detector's input size, as for {@link YoloV5Classifier#recognizeImage}
+     */
+    @Override
+    public List<Recognition> recognizeImage(final Bitmap bitmap) {
+        if (bitmap.getWidth() != cropSize) {
+            cropSize = bitmap.getWidth();
+            final float scale = (float) gateBitmap.getWidth() / cropSize;
+            cropToGate.setScale(scale, scale);
+        }
+
+        long start = System.nanoTime();
+        gateCanvas.drawBitmap(bitmap, cropToGate, scalePaint);
+        final float objectness = gate.getMaxObjectness(gateBitmap);
+        gateNs += System.nanoTime() - start;
+        ++frames;
+
+        ranDetector = objectness >= gateThreshold;
+        if (!ranDetector) {
+            return Collections.emptyList();
+        }
+        start = System.nanoTime();
+        final List<Recognition> results = detector.recognizeImage(bitmap);
+        detectorNs += System.nanoTime() - start;
+        ++detectorRuns;
+        return results;
+    }
+
+    @Override
+    public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+        final List<List<Recognition>> results = new ArrayList<>(bitmaps.size());
+        for (final Bitmap bitmap : bitmaps) {
+            results.add(recognizeImage(bitmap));
+        }
+        return results;
+    }
+
+    @Override
+    public void enableStatLogging(final boolean debug) {
+        // Only the detector: gate runs would be mixed into the same stage histograms.
+        detector.enableStatLogging(debug);
+    }
+
+    /** Gate and detector average times and the fraction of frames that passed the gate. */
+    @Override
+    public String getStatString() {
+        if (frames == 0) {
+            return "";
+        }
+        return String.format("gate %.1fms, detector %.1fms, %d%% passed",
+                gateNs / 1e6f / frames,
+                detectorRuns == 0 ? 0f : detectorNs / 1e6f / detectorRuns,
+                100 * detectorRuns / frames);
+    }
+
+    @Override
+    public void close() {
+        gate.close();
+        detector.close();
+    }
+
+    @Override
+    public void setNumThreads(final int num_threads) {
+        gate.setNumThreads(num_threads);
+        detector.setNumThreads(num_threads);
+    }
+
+    @Override
+    public void setUseNNAPI(final boolean isChecked) {
+        detector.setUseNNAPI(isChecked);
+    }
+
+    @Override
+    public float getObjThresh() {
+        return detector.getObjThresh();
+    }
+}
@@ -26,6 +26,12 @@ import java.util.List;
 public interface Classifier {
     List<Recognition> recognizeImage(Bitmap bitmap);
 
+    /**
+     * Recognizes several images, batching them into fewer interpreter calls where the model
+     * allows it. Returns one result list per input bitmap, in the same order.
+     */
+    List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps);
+
     void enableStatLogging(final boolean debug);
 
     String getStatString();
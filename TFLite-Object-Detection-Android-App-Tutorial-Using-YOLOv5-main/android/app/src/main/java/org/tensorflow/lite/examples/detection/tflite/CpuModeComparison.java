@@ -0,0 +1,118 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the CPU execution modes in {@link DetectorFactory#CPU_DEVICES} on a fixed image set.
+ *
+ * <p>For each mode it reports the median latency and how far the detections drift from the
+ * built-in CPU kernels: how many baseline boxes are found again with the same class, their mean
+ * IoU and the largest confidence difference.
+ */
+public class CpuModeComparison {
+    private static final Logger LOGGER = new Logger();
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int TIMED_RUNS = 5;
+    private static final float MATCH_IOU = 0.5f;
+
+    /**
+     * @param images source images of any size; they are scaled to the model input once
+     * @return a plain text report, one line per mode
+     */
+    public static String compare(final AssetManager assetManager, final String modelFilename,
+                                 final List<Bitmap> images, final int numThreads) throws IOException {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("No images to compare on");
+        }
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format("%s, %d images, %d threads\n", modelFilename, images.size(), numThreads));
+
+        List<Bitmap> inputs = null;
+        List<List<Classifier.Recognition>> baseline = null;
+        for (final String device : DetectorFactory.CPU_DEVICES) {
+            final long[] latencies = new long[images.size() * TIMED_RUNS];
+            final List<List<Classifier.Recognition>> results = new ArrayList<>(images.size());
+            final YoloV5Classifier detector = DetectorFactory.getDetector(assetManager, modelFilename);
+            try {
+                if (inputs == null) {
+                    inputs = new ArrayList<>(images.size());
+                    for (final Bitmap image : images) {
+                        inputs.add(Utils.processBitmap(image, detector.getInputSize()));
+                    }
+                }
+                DetectorFactory.applyBackend(detector, device, numThreads);
+                for (int i = 0; i < WARMUP_RUNS; ++i) {
+                    detector.recognizeImage(inputs.get(0));
+                }
+                int n = 0;
+                for (final Bitmap image : inputs) {
+                    List<Classifier.Recognition> last = null;
+                    for (int i = 0; i < TIMED_RUNS; ++i) {
+                        final long start = SystemClock.uptimeMillis();
+                        last = detector.recognizeImage(image);
+                        latencies[n++] = SystemClock.uptimeMillis() - start;
+                    }
+                    results.add(last);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.w(e, "%s not available", device);
+                report.append(String.format("%-9s not available\n", device));
+                continue;
+            } finally {
+                detector.close();
+            }
+
+            Arrays.sort(latencies);
+            report.append(String.format("%-9s %4dms", device, latencies[latencies.length / 2]));
+            if (baseline == null) {
+                baseline = results;
+                report.append("  baseline\n");
+            } else {
+                report.append("  ").append(drift(baseline, results)).append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    // Matches every baseline box to the best same-class box of the other run.
+    private static String drift(final List<List<Classifier.Recognition>> baseline,
+                                final List<List<Classifier.Recognition>> other) {
+        int total = 0;
+        int matched = 0;
+        float iouSum = 0;
+        float maxConfidenceDelta = 0;
+        for (int i = 0; i < baseline.size(); ++i) {
+            for (final Classifier.Recognition expected : baseline.get(i)) {
+                ++total;
+                Classifier.Recognition best = null;
+                float bestIou = MATCH_IOU;
+                for (final Classifier.Recognition actual : other.get(i)) {
+                    final float iou = Utils.iou(expected.getLocation(), actual.getLocation());
+                    if (actual.getDetectedClass() == expected.getDetectedClass() && iou >= bestIou) {
+                        best = actual;
+                        bestIou = iou;
+                    }
+                }
+                if (best != null) {
+                    ++matched;
+                    iouSum += bestIou;
+                    maxConfidenceDelta = Math.max(maxConfidenceDelta,
+                            Math.abs(best.getConfidence() - expected.getConfidence()));
+                }
+            }
+        }
+        return String.format("matched %d/%d, IoU %.3f, max dConf %.3f",
+                matched, total, matched == 0 ? 0f : iouSum / matched, maxConfidenceDelta);
+    }
+}
@@ -0,0 +1,112 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.Context;
+import android.os.Build;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Where the NNAPI and GPU delegates keep their compiled models between launches.
+ *
+ * <p>Entries live in the app's code cache, which Android clears when the app is updated. Below it
+ * there is one directory per system build fingerprint, so an OS or driver update starts from an
+ * empty cache. Tokens contain a hash of the model contents, so replacing a model file drops its
+ * old entries.
+ */
+public class DelegateCache {
+    private static final Logger LOGGER = new Logger();
+
+    private static final String DIRECTORY = "delegates";
+    private static final int HASH_CHARS = 16;
+
+    private static volatile File directory;
+
+    /** Enables the cache for this process. Safe to call more than once. */
+    public static synchronized void init(final Context context) {
+        if (directory != null) {
+            return;
+        }
+        final File base = new File(context.getApplicationContext().getCodeCacheDir(), DIRECTORY);
+        final File current = new File(base, hash(ByteBuffer.wrap(
+                Build.FINGERPRINT.getBytes(Charset.forName("UTF-8")))));
+        final File[] entries = base.listFiles();
+        if (entries != null) {
+            for (final File entry : entries) {
+                if (!entry.equals(current)) {
+                    LOGGER.i("Dropping delegate cache %s compiled for another system build", entry.getName());
+                    delete(entry);
+                }
+            }
+        }
+        if (!current.isDirectory() && !current.mkdirs()) {
+            LOGGER.w("Cannot create delegate cache %s", current);
+            return;
+        }
+        directory = current;
+    }
+
+    /** Returns the cache directory, or null if {@link #init} was not called or failed. */
+    static File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the cache token for {@code model}, or null if caching is disabled. Entries of other
+     * versions of the same model file are removed.
+     */
+    static String getModelToken(final String modelFilename, final ByteBuffer model) {
+        final File dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        final String prefix = modelFilename.replaceAll("[^A-Za-z0-9]", "_") + "_";
+        final String token = prefix + hash(model);
+        final File[] entries = dir.listFiles();
+        if (entries != null) {
+            for (final File entry : entries) {
+                if (entry.getName().startsWith(prefix) && !entry.getName().startsWith(token)) {
+                    delete(entry);
+                }
+            }
+        }
+        return token;
+    }
+
+    private static String hash(final ByteBuffer data) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // Hash a view, so the caller's buffer position is untouched.
+            final ByteBuffer view = data.duplicate();
+            view.rewind();
+            digest.update(view);
+            final StringBuilder hex = new StringBuilder();
+            for (final byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+                if (hex.length() >= HASH_CHARS) {
+                    break;
+                }
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Android release provides SHA-256.
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            LOGGER.w("Cannot delete %s", file);
+        }
+    }
+}
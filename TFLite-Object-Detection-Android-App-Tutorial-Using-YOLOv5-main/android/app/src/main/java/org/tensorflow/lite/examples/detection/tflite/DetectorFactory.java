@@ -1,51 +1,130 @@
 package org.tensorflow.lite.examples.detection.tflite;
 
+import android.content.Context;
 import android.content.res.AssetManager;
 
+import org.tensorflow.lite.examples.detection.env.Logger;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DetectorFactory {
+    private static final Logger LOGGER = new Logger();
+
+    // Built-in CPU kernels.
+    public static final String DEVICE_CPU = "CPU";
+    // CPU with the XNNPACK delegate; no GPU driver involved, so safe where the GPU delegate is not.
+    public static final String DEVICE_XNNPACK = "XNNPACK";
+    // CPU kernels allowed to compute FP32 ops in FP16 where the hardware supports it.
+    public static final String DEVICE_CPU_FP16 = "CPU FP16";
+    public static final String DEVICE_GPU = "GPU";
+    public static final String DEVICE_NNAPI = "NNAPI";
+
+    public static final String[] CPU_DEVICES = new String[]{DEVICE_CPU, DEVICE_XNNPACK, DEVICE_CPU_FP16};
+
+    // The first stage of a cascade is the first model with the gate role in the manifest. There is
+    // no fallback: a gate cut from the full model mostly adds a second run of the same model.
+    public static final float DEFAULT_GATE_THRESHOLD = 0.25f;
+
+    /**
+     * Creates a detector for {@code modelFilename}. Labels, role and input size come from the
+     * {@link ModelManifest}; whatever it leaves out is read from the model's tensors.
+     */
     public static YoloV5Classifier getDetector
             (final AssetManager assetManager, final String modelFilename) throws IOException {
-        String labelFilename = null;
-        boolean isQuantized = false;
-        int inputSize = 0;
-        int[] output_width = new int[]{0};
-        int[][] masks = new int[][]{{0}};
-        int[] anchors = new int[]{0};
-
-        if (modelFilename.equals("yolov5s.tflite")) {
-            labelFilename = "file:///android_asset/customclasses.txt";
-            isQuantized = false;
-            inputSize = 416;
-            output_width = new int[]{80, 40, 20};
-            masks = new int[][]{{0, 1, 2}, {3, 4, 5}, {6, 7, 8}};
-            anchors = new int[]{
-                    10,13, 16,30, 33,23, 30,61, 62,45, 59,119, 116,90, 156,198, 373,326
-            };
+        return YoloV5Classifier.create(assetManager,
+                ModelManifest.get(assetManager).getDescriptor(modelFilename));
+    }
+
+    /**
+     * Creates {@code count} independent detectors for the same model, e.g. for {@link TiledDetector}.
+     * Each one holds its own interpreter and buffers, so they can run on different threads.
+     */
+    public static List<YoloV5Classifier> getDetectors
+            (final AssetManager assetManager, final String modelFilename, final int count) throws IOException {
+        final List<YoloV5Classifier> detectors = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            detectors.add(getDetector(assetManager, modelFilename));
         }
-        else if (modelFilename.equals("best-fp16.tflite")) {
-            labelFilename = "file:///android_asset/customclasses.txt"; // 클래스에 대한 정보가 담긴 파일의 경로.
-            isQuantized = false; // 모델이 양자화되었는지 여부를 나타냅니다. 양자화는 모델 크기를 줄이고 실행 속도를 향상시킬 수 있는 기술입니다.
-            inputSize = 416;
-            output_width = new int[]{40, 20, 10};
-            masks = new int[][]{{0, 1, 2}, {3, 4, 5}, {6, 7, 8}};
-            anchors = new int[]{
-                    10,13, 16,30, 33,23, 30,61, 62,45, 59,119, 116,90, 156,198, 373,326
-            };
+        return detectors;
+    }
+
+    /**
+     * Creates a two-stage detector: the bundled gate model in front of {@code modelFilename}.
+     * The full detector only runs on frames where the gate's objectness reaches {@code gateThreshold}.
+     *
+     * @throws IOException if no gate model is bundled; check {@link #hasGate} first
+     */
+    public static CascadeDetector getCascadeDetector
+            (final AssetManager assetManager, final String modelFilename, final float gateThreshold) throws IOException {
+        return new CascadeDetector(getGate(assetManager, modelFilename),
+                getDetector(assetManager, modelFilename), gateThreshold);
+    }
+
+    /** Like {@link #getCascadeDetector(AssetManager, String, float)}, with the calibrated backend. */
+    public static CascadeDetector getCascadeDetector
+            (final Context context, final String modelFilename, final float gateThreshold) throws IOException {
+        return new CascadeDetector(getGate(context.getAssets(), modelFilename),
+                getDetector(context, modelFilename), gateThreshold);
+    }
+
+    /** Whether the manifest lists a bundled model with the gate role. */
+    public static boolean hasGate(final AssetManager assetManager) throws IOException {
+        return !ModelManifest.get(assetManager).getModelFiles(ModelDescriptor.ROLE_GATE).isEmpty();
+    }
+
+    private static YoloV5Classifier getGate
+            (final AssetManager assetManager, final String modelFilename) throws IOException {
+        final List<String> gates = ModelManifest.get(assetManager).getModelFiles(ModelDescriptor.ROLE_GATE);
+        if (gates.isEmpty()) {
+            throw new IOException("No gate model bundled for a cascade in front of " + modelFilename);
         }
-        else if (modelFilename.equals("yolov5s-int8.tflite")) {
-            labelFilename = "file:///android_asset/customclasses.txt";
-            isQuantized = true;
-            inputSize = 416;
-            output_width = new int[]{40, 20, 10};
-            masks = new int[][]{{0, 1, 2}, {3, 4, 5}, {6, 7, 8}};
-            anchors = new int[]{
-                    10,13, 16,30, 33,23, 30,61, 62,45, 59,119, 116,90, 156,198, 373,326
-            };
+        return getDetector(assetManager, gates.get(0));
+    }
+
+    /**
+     * Creates the material refinement stage from the first model with the classifier role in the
+     * manifest, or returns null if there is none.
+     */
+    public static MaterialRefiner getMaterialRefiner(final AssetManager assetManager) throws IOException {
+        final ModelManifest manifest = ModelManifest.get(assetManager);
+        final List<String> classifiers = manifest.getModelFiles(ModelDescriptor.ROLE_CLASSIFIER);
+        if (classifiers.isEmpty()) {
+            LOGGER.i("No material classifier bundled, material refinement disabled");
+            return null;
         }
-        return YoloV5Classifier.create(assetManager, modelFilename, labelFilename, isQuantized,
-                inputSize);
+        final ModelDescriptor descriptor = manifest.getDescriptor(classifiers.get(0));
+        return new MaterialRefiner(MaterialClassifier.create(
+                assetManager, descriptor.getFile(), descriptor.getLabelFilename()));
     }
 
+    /**
+     * Like {@link #getDetector(AssetManager, String)}, but already switched to the delegate and
+     * thread count that {@link BackendCalibrator} found fastest on this device, if any.
+     */
+    public static YoloV5Classifier getDetector(final Context context, final String modelFilename) throws IOException {
+        final YoloV5Classifier detector = getDetector(context.getAssets(), modelFilename);
+        final BackendCalibrator.Backend backend = BackendCalibrator.load(context, modelFilename);
+        if (backend != null) {
+            applyBackend(detector, backend.device, backend.numThreads);
+        }
+        return detector;
+    }
+
+    /** Moves {@code detector} to one of the DEVICE_* delegates and sets its thread count. */
+    public static void applyBackend(final YoloV5Classifier detector, final String device, final int numThreads) {
+        if (device.equals(DEVICE_CPU)) {
+            detector.useCPU();
+        } else if (device.equals(DEVICE_XNNPACK)) {
+            detector.useXNNPACK();
+        } else if (device.equals(DEVICE_CPU_FP16)) {
+            detector.useCPUFp16();
+        } else if (device.equals(DEVICE_GPU)) {
+            detector.useGpu();
+        } else if (device.equals(DEVICE_NNAPI)) {
+            detector.useNNAPI();
+        }
+        detector.setNumThreads(numThreads);
+    }
 }
@@ -0,0 +1,233 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Process-wide owner of the detector, so a model is loaded once per process instead of once per
+ * activity.
+ *
+ * <p>{@link #preload} loads a classifier on a background thread and warms it up with a few
+ * inferences on a blank image, so kernel selection, delegate compilation and buffer allocation
+ * are done before the first real frame. {@link #acquire} hands out that same instance, waiting
+ * for the load if it is still running. Only the foreground activity runs inference, so the users
+ * of the shared classifier take turns rather than running it concurrently. A user may resize it or
+ * switch its delegate and thread count; {@link #release} puts those back as they were loaded, so
+ * the next user gets the classifier in its loaded state.
+ */
+public class DetectorProvider {
+    private static final Logger LOGGER = new Logger();
+
+    private static final int WARMUP_RUNS = 2;
+
+    private static DetectorProvider instance;
+
+    public static synchronized DetectorProvider getInstance() {
+        if (instance == null) {
+            instance = new DetectorProvider();
+        }
+        return instance;
+    }
+
+    // Loads and closes the shared classifier, in submission order.
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    // The shared classifier, what it was loaded for, and how many acquire calls are not released.
+    private String key;
+    private Future<Shared> shared;
+    private int users;
+
+    // The shared classifier with the settings of its detectors right after loading.
+    private static final class Shared {
+        final Classifier classifier;
+        final List<YoloV5Classifier> detectors = new ArrayList<>(2);
+        final List<YoloV5Classifier.Settings> settings = new ArrayList<>(2);
+
+        Shared(final Classifier classifier) {
+            this.classifier = classifier;
+            if (classifier instanceof CascadeDetector) {
+                detectors.add(((CascadeDetector) classifier).getGate());
+                detectors.add(((CascadeDetector) classifier).getDetector());
+            } else if (classifier instanceof YoloV5Classifier) {
+                detectors.add((YoloV5Classifier) classifier);
+            }
+            for (final YoloV5Classifier detector : detectors) {
+                settings.add(detector.getSettings());
+            }
+        }
+
+        void restore() {
+            for (int i = 0; i < detectors.size(); ++i) {
+                detectors.get(i).restore(settings.get(i));
+            }
+        }
+    }
+
+    private DetectorProvider() {
+    }
+
+    /**
+     * Starts loading and warming up the classifier {@code factory} creates, unless the classifier
+     * for {@code key} is already loaded. Does nothing while another shared classifier is in use.
+     */
+    public synchronized void preload(final String key, final Callable<? extends Classifier> factory) {
+        if (key.equals(this.key)) {
+            return;
+        }
+        if (users > 0) {
+            LOGGER.w("Not preloading %s, %s is in use", key, this.key);
+            return;
+        }
+        closeShared();
+        this.key = key;
+        shared = loader.submit(() -> new Shared(load(factory)));
+    }
+
+    /**
+     * Returns the shared classifier for {@code key}, loading it with {@code factory} if it was not
+     * preloaded. Blocks until it is loaded and warmed up. Every call must be matched by
+     * {@link #release}. While a classifier for another key is in use, a separate one is created.
+     */
+    public Classifier acquire(final String key, final Callable<? extends Classifier> factory) throws IOException {
+        final Future<Shared> future;
+        synchronized (this) {
+            preload(key, factory);
+            if (!key.equals(this.key)) {
+                future = null;
+            } else {
+                ++users;
+                future = shared;
+            }
+        }
+        if (future == null) {
+            return load(factory);
+        }
+
+        try {
+            return future.get().classifier;
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                --users;
+                // Let the next acquire try again.
+                if (shared == future) {
+                    this.key = null;
+                    shared = null;
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                --users;
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted loading " + key);
+        }
+    }
+
+    /**
+     * Gives back a classifier from {@link #acquire}. The shared classifier stays loaded for the
+     * next user, with the input size, delegate and thread count it was loaded with; any other
+     * classifier, including ones the caller created itself, is closed. Must not be called while
+     * the caller's inference is still running.
+     */
+    public synchronized void release(final Classifier classifier) {
+        final Shared current = getNow(shared);
+        if (users > 0 && current != null && classifier == current.classifier) {
+            --users;
+            try {
+                current.restore();
+            } catch (RuntimeException e) {
+                // The delegate it was loaded with failed to rebuild; load it again next time.
+                LOGGER.e(e, "Cannot restore %s", key);
+                if (users == 0) {
+                    closeShared();
+                }
+            }
+            return;
+        }
+        classifier.close();
+    }
+
+    /** Closes the shared classifier if nobody uses it. It is loaded again on the next acquire. */
+    public synchronized void trimMemory() {
+        if (users == 0 && shared != null) {
+            LOGGER.i("Closing unused %s", key);
+            closeShared();
+        }
+    }
+
+    private void closeShared() {
+        if (shared == null) {
+            return;
+        }
+        // Runs after the load, on the loader thread, if the load is still in progress.
+        final Future<Shared> previous = shared;
+        loader.execute(() -> {
+            final Shared loaded = getNow(previous);
+            if (loaded != null) {
+                loaded.classifier.close();
+            }
+        });
+        key = null;
+        shared = null;
+    }
+
+    private static Shared getNow(final Future<Shared> future) {
+        if (future == null || !future.isDone()) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    private static Classifier load(final Callable<? extends Classifier> factory) throws IOException {
+        final Classifier classifier;
+        try {
+            classifier = factory.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        warmUp(classifier);
+        return classifier;
+    }
+
+    // A blank image never passes a cascade's gate, so both of its stages are warmed up directly.
+    private static void warmUp(final Classifier classifier) {
+        if (classifier instanceof CascadeDetector) {
+            warmUp(((CascadeDetector) classifier).getGate());
+            warmUp(((CascadeDetector) classifier).getDetector());
+        } else if (classifier instanceof YoloV5Classifier) {
+            final int inputSize = ((YoloV5Classifier) classifier).getInputSize();
+            final Bitmap blank = Bitmap.createBitmap(inputSize, inputSize, Bitmap.Config.ARGB_8888);
+            final long start = SystemClock.uptimeMillis();
+            for (int i = 0; i < WARMUP_RUNS; ++i) {
+                classifier.recognizeImage(blank);
+            }
+            LOGGER.i("Warm-up at %dpx took %dms", inputSize, SystemClock.uptimeMillis() - start);
+        }
+    }
+}
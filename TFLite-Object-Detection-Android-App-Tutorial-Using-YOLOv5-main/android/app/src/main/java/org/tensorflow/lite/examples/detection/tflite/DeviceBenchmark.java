@@ -0,0 +1,252 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Debug;
+import android.os.PowerManager;
+
+import com.google.gson.GsonBuilder;
+
+import org.tensorflow.lite.examples.detection.core.LatencyHistogram;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
+import org.tensorflow.lite.examples.detection.env.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Profiles every bundled detector and gate model on this device, on a fixed image set: the CPU
+ * with 1 to {@link #MAX_THREADS} threads, then the GPU and NNAPI delegates.
+ *
+ * <p>For each configuration it records the p50/p95 of every detector stage and of the whole
+ * {@link YoloV5Classifier#recognizeImage} call, the heap sizes after the runs and the thermal
+ * state, so reports from different devices, or from a device before and after it heats up, can
+ * be compared. Takes minutes; run it off the UI thread.
+ */
+public class DeviceBenchmark {
+    private static final Logger LOGGER = new Logger();
+
+    public static final int MAX_THREADS = 8;
+    private static final int WARMUP_RUNS = 3;
+    private static final int TIMED_RUNS_PER_IMAGE = 5;
+    private static final Stage[] STAGES = {Stage.PACK, Stage.INFERENCE, Stage.DECODE, Stage.NMS};
+
+    /** Receives a line of progress before each configuration. */
+    public interface ProgressListener {
+        void onProgress(String status);
+    }
+
+    /** The measurements of one model, delegate and thread count. */
+    public static class Result {
+        public final String model;
+        public final String device;
+        public final int threads;
+        public int inputSize;
+        public int runs;
+        /** Set instead of the measurements when the configuration could not run. */
+        public String error;
+        public float totalP50Ms;
+        public float totalP95Ms;
+        public final Map<String, float[]> stageP50P95Ms = new LinkedHashMap<>();
+        public long javaHeapUsedKb;
+        public long nativeHeapAllocatedKb;
+        public int thermalStatus;
+        public float batteryTemperatureC;
+
+        Result(final String model, final String device, final int threads) {
+            this.model = model;
+            this.device = device;
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * Runs every configuration. Stops early, with the results so far, when the calling thread is
+     * interrupted.
+     *
+     * @param images source images of any size; they are scaled to each model's input once
+     */
+    public static List<Result> run(final Context context, final List<Bitmap> images,
+                                   final ProgressListener listener) throws IOException {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("No images to benchmark on");
+        }
+        final ModelManifest manifest = ModelManifest.get(context.getAssets());
+        final List<String> models = new ArrayList<>(manifest.getModelFiles(ModelDescriptor.ROLE_DETECTOR));
+        models.addAll(manifest.getModelFiles(ModelDescriptor.ROLE_GATE));
+
+        final List<Result> results = new ArrayList<>();
+        for (final String model : models) {
+            final List<Result> configurations = new ArrayList<>();
+            for (int threads = 1; threads <= MAX_THREADS; ++threads) {
+                configurations.add(new Result(model, DetectorFactory.DEVICE_CPU, threads));
+            }
+            configurations.add(new Result(model, DetectorFactory.DEVICE_GPU, 1));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                configurations.add(new Result(model, DetectorFactory.DEVICE_NNAPI, 1));
+            }
+            for (final Result result : configurations) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return results;
+                }
+                listener.onProgress(String.format(Locale.US, "%s %s x%d (%d of %d models)",
+                        model, result.device, result.threads, models.indexOf(model) + 1, models.size()));
+                measure(context, images, result);
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private static void measure(final Context context, final List<Bitmap> images, final Result result)
+            throws IOException {
+        final PipelineMetrics metrics = PipelineMetrics.get();
+        final LatencyHistogram total = new LatencyHistogram();
+        final YoloV5Classifier detector = DetectorFactory.getDetector(context.getAssets(), result.model);
+        try {
+            DetectorFactory.applyBackend(detector, result.device, result.threads);
+            result.inputSize = detector.getInputSize();
+            final List<Bitmap> inputs = new ArrayList<>(images.size());
+            for (final Bitmap image : images) {
+                inputs.add(Utils.processBitmap(image, result.inputSize));
+            }
+            for (int i = 0; i < WARMUP_RUNS; ++i) {
+                detector.recognizeImage(inputs.get(0));
+            }
+
+            detector.enableStatLogging(true);
+            metrics.reset();
+            for (final Bitmap input : inputs) {
+                for (int i = 0; i < TIMED_RUNS_PER_IMAGE; ++i) {
+                    final long start = System.nanoTime();
+                    detector.recognizeImage(input);
+                    total.recordNanos(System.nanoTime() - start);
+                }
+            }
+            detector.enableStatLogging(false);
+        } catch (RuntimeException e) {
+            // Delegates throw when the device or the model's ops are not supported.
+            LOGGER.w(e, "Skipping %s %s x%d", result.model, result.device, result.threads);
+            result.error = String.valueOf(e.getMessage());
+            return;
+        } finally {
+            detector.close();
+        }
+
+        result.runs = (int) total.getCount();
+        result.totalP50Ms = total.getPercentileMs(50);
+        result.totalP95Ms = total.getPercentileMs(95);
+        for (final Stage stage : STAGES) {
+            final LatencyHistogram histogram = metrics.getHistogram(stage);
+            result.stageP50P95Ms.put(stage.name().toLowerCase(Locale.US),
+                    new float[]{histogram.getPercentileMs(50), histogram.getPercentileMs(95)});
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        result.javaHeapUsedKb = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+        result.nativeHeapAllocatedKb = Debug.getNativeHeapAllocatedSize() / 1024;
+        result.thermalStatus = getThermalStatus(context);
+        result.batteryTemperatureC = getBatteryTemperature(context);
+    }
+
+    // PowerManager.THERMAL_STATUS_*, or -1 before Android 10.
+    private static int getThermalStatus(final Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return -1;
+        }
+        return ((PowerManager) context.getSystemService(Context.POWER_SERVICE)).getCurrentThermalStatus();
+    }
+
+    // The battery sits next to the SoC on most phones; NaN if it is not reported.
+    private static float getBatteryTemperature(final Context context) {
+        final Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        final int tenths = battery != null ? battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE)
+                : Integer.MIN_VALUE;
+        return tenths == Integer.MIN_VALUE ? Float.NaN : tenths / 10f;
+    }
+
+    /** Writes {@code <name>.json} and {@code <name>.csv} to {@code dir} and returns both files. */
+    public static File[] writeReports(final Context context, final List<Result> results,
+                                      final File dir, final String name) throws IOException {
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("device", getDeviceInfo(context));
+        root.put("results", results);
+        final File json = new File(dir, name + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(json), "UTF-8")) {
+            writer.write(new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues()
+                    .create().toJson(root));
+        }
+
+        final File csv = new File(dir, name + ".csv");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8")) {
+            writer.write("model,device,threads,input_size,runs,total_p50_ms,total_p95_ms");
+            for (final Stage stage : STAGES) {
+                final String label = stage.name().toLowerCase(Locale.US);
+                writer.write("," + label + "_p50_ms," + label + "_p95_ms");
+            }
+            writer.write(",java_heap_kb,native_heap_kb,thermal_status,battery_c,error\n");
+            for (final Result result : results) {
+                writer.write(String.format(Locale.US, "%s,%s,%d,%d,%d,%.2f,%.2f", result.model, result.device,
+                        result.threads, result.inputSize, result.runs, result.totalP50Ms, result.totalP95Ms));
+                for (final Stage stage : STAGES) {
+                    final float[] values = result.stageP50P95Ms.get(stage.name().toLowerCase(Locale.US));
+                    writer.write(values != null ? String.format(Locale.US, ",%.2f,%.2f", values[0], values[1]) : ",,");
+                }
+                writer.write(String.format(Locale.US, ",%d,%d,%d,%.1f,%s\n", result.javaHeapUsedKb,
+                        result.nativeHeapAllocatedKb, result.thermalStatus, result.batteryTemperatureC,
+                        result.error != null ? '"' + result.error.replace('"', '\'') + '"' : ""));
+            }
+        }
+        return new File[]{json, csv};
+    }
+
+    private static Map<String, Object> getDeviceInfo(final Context context) {
+        final Map<String, Object> device = new LinkedHashMap<>();
+        device.put("manufacturer", Build.MANUFACTURER);
+        device.put("model", Build.MODEL);
+        device.put("hardware", Build.HARDWARE);
+        device.put("sdk", Build.VERSION.SDK_INT);
+        device.put("abi", Build.SUPPORTED_ABIS.length > 0 ? Build.SUPPORTED_ABIS[0] : "");
+        device.put("cores", Runtime.getRuntime().availableProcessors());
+        final ActivityManager.MemoryInfo memory = new ActivityManager.MemoryInfo();
+        ((ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE)).getMemoryInfo(memory);
+        device.put("totalMemoryMb", memory.totalMem / (1024 * 1024));
+        device.put("timeMs", System.currentTimeMillis());
+        return device;
+    }
+
+    /** One line per configuration, for the screen. */
+    public static String summarize(final List<Result> results) {
+        final StringBuilder text = new StringBuilder();
+        String model = null;
+        for (final Result result : results) {
+            if (!result.model.equals(model)) {
+                model = result.model;
+                text.append(model).append('\n');
+            }
+            text.append(String.format(Locale.US, "  %-6s x%d ", result.device, result.threads));
+            if (result.error != null) {
+                text.append("not available\n");
+            } else {
+                final float[] inference = result.stageP50P95Ms.get("inference");
+                text.append(String.format(Locale.US, "%6.1f / %6.1f ms  inference %6.1f\n",
+                        result.totalP50Ms, result.totalP95Ms, inference[0]));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.examples.detection.env.Utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Small image classifier that assigns a material class to object crops.
+ *
+ * <p>The model takes {@code [N, S, S, 3]} float RGB in {@code [0, 1]} and returns {@code [N, C]}
+ * scores, with C matching the label file. Crops are classified as one batch per call.
+ */
+public class MaterialClassifier {
+    private static final float IMAGE_MEAN = 0;
+    private static final float IMAGE_STD = 255.0f;
+    private static final int NUM_THREADS = 1;
+
+    private final Interpreter tfLite;
+    private final List<String> labels = new ArrayList<>();
+    private final int inputSize;
+    private final int[] intValues;
+
+    private int batchSize = 1;
+    private ByteBuffer imgData;
+    private float[][] scores;
+
+    private MaterialClassifier(final Interpreter tfLite, final int inputSize) {
+        this.tfLite = tfLite;
+        this.inputSize = inputSize;
+        this.intValues = new int[inputSize * inputSize];
+        allocateBuffers(1);
+    }
+
+    /**
+     * @param modelFilename asset name of the classifier model
+     * @param labelFilename asset name of the label file, one class per line
+     */
+    public static MaterialClassifier create(final AssetManager assetManager, final String modelFilename,
+                                            final String labelFilename) throws IOException {
+        final Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(NUM_THREADS);
+        final Interpreter tfLite = new Interpreter(Utils.loadModelFile(assetManager, modelFilename), options);
+
+        final int[] shape = tfLite.getInputTensor(0).shape();
+        final MaterialClassifier c = new MaterialClassifier(tfLite, shape[1]);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(assetManager.open(labelFilename)))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                c.labels.add(line);
+            }
+        }
+        return c;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public String getLabel(final int labelIndex) {
+        return labels.get(labelIndex);
+    }
+
+    /**
+     * Classifies {@code crops}, which must be {@link #getInputSize()} square, in one interpreter run.
+     *
+     * @return one row of class probabilities per crop. Rows are reused by the next call.
+     */
+    public float[][] classify(final List<Bitmap> crops) {
+        if (crops.size() != batchSize) {
+            tfLite.resizeInput(0, new int[]{crops.size(), inputSize, inputSize, 3});
+            // The output shape read by allocateBuffers is only updated by allocateTensors.
+            tfLite.allocateTensors();
+            allocateBuffers(crops.size());
+        }
+
+        imgData.rewind();
+        for (final Bitmap crop : crops) {
+            crop.getPixels(intValues, 0, inputSize, 0, 0, inputSize, inputSize);
+            for (final int pixelValue : intValues) {
+                imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+                imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+            }
+        }
+        tfLite.run(imgData, scores);
+
+        for (final float[] row : scores) {
+            float sum = 0;
+            for (final float score : row) {
+                sum += score;
+            }
+            // Models exported without a final softmax return logits.
+            if (Math.abs(sum - 1) > 0.01f) {
+                Utils.softmax(row);
+            }
+        }
+        return scores;
+    }
+
+    public void close() {
+        tfLite.close();
+    }
+
+    private void allocateBuffers(final int batchSize) {
+        this.batchSize = batchSize;
+        imgData = ByteBuffer.allocateDirect(batchSize * inputSize * inputSize * 3 * 4);
+        imgData.order(ByteOrder.nativeOrder());
+        scores = new float[batchSize][tfLite.getOutputTensor(0).shape()[1]];
+    }
+}
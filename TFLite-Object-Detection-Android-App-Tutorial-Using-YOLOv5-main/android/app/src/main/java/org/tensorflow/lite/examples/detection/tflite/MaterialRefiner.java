@@ -0,0 +1,167 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import org.tensorflow.lite.examples.detection.core.Boxes;
+import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Second detection stage that re-decides the material class of detected boxes.
+ *
+ * <p>Each box is cropped at native resolution from the camera frame and the crops are classified
+ * as one batch by a {@link MaterialClassifier}. Boxes are matched to the previous frame's boxes by
+ * IoU; a box whose match was already classified keeps that label, so only new or uncertain
+ * objects pay for a classifier run.
+ */
+public class MaterialRefiner {
+    // Detections below this detector confidence are always classified again.
+    private static final float UNCERTAIN_CONFIDENCE = 0.6f;
+    // Classifier results below this score do not count as settled.
+    private static final float MIN_CLASSIFIER_SCORE = 0.5f;
+    // A settled label is reused for at most this many frames.
+    private static final int MAX_TRACK_AGE = 30;
+    private static final float TRACK_IOU = 0.5f;
+    private static final int MAX_BATCH_SIZE = 8;
+
+    private final MaterialClassifier classifier;
+    private final Matrix frameToCrop = new Matrix();
+    private final Paint cropPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final List<Bitmap> cropPool = new ArrayList<>();
+    private final List<Canvas> cropCanvases = new ArrayList<>();
+    private final List<Bitmap> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    private List<Track> tracks = new ArrayList<>();
+    // Locations of tracks, packed as left, top, right, bottom for Boxes.bestMatch.
+    private float[] trackBoxes = new float[4 * MAX_BATCH_SIZE];
+
+    public MaterialRefiner(final MaterialClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * @param frame             the camera frame the detections were mapped to
+     * @param detections        detections in {@code frame} coordinates
+     * @param sensorOrientation rotation that makes {@code frame} upright, in degrees
+     * @return the detections with refined titles and classes
+     */
+    public List<Recognition> refine(final Bitmap frame, final List<Recognition> detections,
+                                    final int sensorOrientation) {
+        final List<Track> current = new ArrayList<>(detections.size());
+        final List<Track> pending = new ArrayList<>(MAX_BATCH_SIZE);
+        batch.clear();
+
+        for (final Recognition detection : detections) {
+            final RectF location = detection.getLocation();
+            final Track previous = match(location);
+            final Track track;
+            if (previous != null && previous.age < MAX_TRACK_AGE
+                    && detection.getConfidence() >= UNCERTAIN_CONFIDENCE) {
+                track = new Track(location, previous.detectedClass, previous.age + 1);
+            } else if (batch.size() < MAX_BATCH_SIZE) {
+                track = new Track(location, detection.getDetectedClass(), 0);
+                batch.add(crop(frame, location, sensorOrientation, batch.size()));
+                pending.add(track);
+            } else {
+                // Over the batch budget: keep the detector's class and retry on the next frame.
+                track = new Track(location, detection.getDetectedClass(), MAX_TRACK_AGE);
+            }
+            current.add(track);
+        }
+
+        if (!batch.isEmpty()) {
+            final float[][] scores = classifier.classify(batch);
+            for (int i = 0; i < pending.size(); ++i) {
+                final Track track = pending.get(i);
+                int best = 0;
+                for (int c = 1; c < scores[i].length; ++c) {
+                    if (scores[i][c] > scores[i][best]) {
+                        best = c;
+                    }
+                }
+                track.detectedClass = best;
+                if (scores[i][best] < MIN_CLASSIFIER_SCORE) {
+                    track.age = MAX_TRACK_AGE;
+                }
+            }
+        }
+        tracks = current;
+        if (trackBoxes.length < 4 * current.size()) {
+            trackBoxes = new float[4 * current.size()];
+        }
+        for (int i = 0, j = 0; i < current.size(); ++i, j += 4) {
+            final RectF location = current.get(i).location;
+            trackBoxes[j] = location.left;
+            trackBoxes[j + 1] = location.top;
+            trackBoxes[j + 2] = location.right;
+            trackBoxes[j + 3] = location.bottom;
+        }
+
+        final List<Recognition> refined = new ArrayList<>(detections.size());
+        for (int i = 0; i < detections.size(); ++i) {
+            final Recognition detection = detections.get(i);
+            final Track track = current.get(i);
+            refined.add(new Recognition(detection.getId(), classifier.getLabel(track.detectedClass),
+                    detection.getConfidence(), track.location, track.detectedClass));
+        }
+        return refined;
+    }
+
+    /** Closes the classifier. Must not be called while {@link #refine} runs. */
+    public void close() {
+        classifier.close();
+        for (final Bitmap crop : cropPool) {
+            crop.recycle();
+        }
+        cropPool.clear();
+        cropCanvases.clear();
+    }
+
+    private Track match(final RectF location) {
+        final int best = Boxes.bestMatch(trackBoxes, tracks.size(),
+                location.left, location.top, location.right, location.bottom, TRACK_IOU);
+        return best < 0 ? null : tracks.get(best);
+    }
+
+    // Draws the box upright and scaled to the classifier input into a pooled bitmap.
+    private Bitmap crop(final Bitmap frame, final RectF box, final int sensorOrientation, final int slot) {
+        final int size = classifier.getInputSize();
+        if (slot == cropPool.size()) {
+            final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            cropPool.add(bitmap);
+            cropCanvases.add(new Canvas(bitmap));
+        }
+        final Bitmap crop = cropPool.get(slot);
+        // Boxes that reach past the frame edge leave part of the crop undrawn.
+        crop.eraseColor(Color.BLACK);
+
+        final boolean rotated = sensorOrientation % 180 != 0;
+        final float width = rotated ? box.height() : box.width();
+        final float height = rotated ? box.width() : box.height();
+        frameToCrop.reset();
+        frameToCrop.postTranslate(-box.centerX(), -box.centerY());
+        frameToCrop.postRotate(sensorOrientation);
+        frameToCrop.postScale(size / width, size / height);
+        frameToCrop.postTranslate(size / 2f, size / 2f);
+        cropCanvases.get(slot).drawBitmap(frame, frameToCrop, cropPaint);
+        return crop;
+    }
+
+    private static class Track {
+        final RectF location;
+        int detectedClass;
+        int age;
+
+        Track(final RectF location, final int detectedClass, final int age) {
+            this.location = location;
+            this.detectedClass = detectedClass;
+            this.age = age;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * What the app needs to know about a bundled model that its tensors do not tell, as listed in
+ * {@link ModelManifest#MANIFEST_FILENAME}. Every field is optional.
+ */
+public class ModelDescriptor {
+    /** Shown in the model list and used by the camera screen. */
+    public static final String ROLE_DETECTOR = "detector";
+    /** First stage of a {@link CascadeDetector}. */
+    public static final String ROLE_GATE = "gate";
+    /** Crop classifier of a {@link MaterialRefiner}. */
+    public static final String ROLE_CLASSIFIER = "classifier";
+
+    private static final String DEFAULT_LABELS = "customclasses.txt";
+
+    // Field names are the JSON keys.
+    private String file;
+    private String labels;
+    private int inputSize;
+    private Boolean quantized;
+    private String role;
+    private String outputLayout;
+    private int[] anchors;
+
+    // Used by Gson.
+    private ModelDescriptor() {
+    }
+
+    /** A detector with nothing but defaults, for models that are bundled but not listed. */
+    static ModelDescriptor of(final String file) {
+        final ModelDescriptor descriptor = new ModelDescriptor();
+        descriptor.file = file;
+        return descriptor;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    /** Asset name of the label file, one class per line. */
+    public String getLabelFilename() {
+        return labels != null ? labels : DEFAULT_LABELS;
+    }
+
+    /** Input size to run at, or 0 to use the size the model was exported with. */
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /** Whether the model takes quantized input, or null to decide from the input tensor type. */
+    public Boolean isQuantized() {
+        return quantized;
+    }
+
+    /** One of the OutputDecoder layouts, or null to tell from the output tensor shapes. */
+    public String getOutputLayout() {
+        return outputLayout;
+    }
+
+    /** Anchor (w, h) pairs in input pixels for the grid layout, or null for the YOLOv5 defaults. */
+    public int[] getAnchors() {
+        return anchors;
+    }
+
+    public String getRole() {
+        return role != null ? role : ROLE_DETECTOR;
+    }
+}
@@ -0,0 +1,106 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The models bundled with the app, read once per process from the asset list and the optional
+ * {@link #MANIFEST_FILENAME}.
+ *
+ * <p>A model only needs a manifest entry for what its tensors do not tell: its labels, its role,
+ * or an input size other than the exported one. Bundled models without an entry are detectors
+ * with default labels, so adding a model does not need code changes.
+ */
+public class ModelManifest {
+    private static final Logger LOGGER = new Logger();
+
+    public static final String MANIFEST_FILENAME = "models.json";
+    private static final String MODEL_EXTENSION = ".tflite";
+
+    private static ModelManifest instance;
+
+    /** Returns the manifest, reading the assets on the first call. */
+    public static synchronized ModelManifest get(final AssetManager assetManager) throws IOException {
+        if (instance == null) {
+            instance = new ModelManifest(assetManager);
+        }
+        return instance;
+    }
+
+    // The JSON document: {"models": [{"file": ..., ...}, ...]}
+    private static class Document {
+        List<ModelDescriptor> models;
+    }
+
+    // Listed models first, in manifest order, then the unlisted ones in asset order.
+    private final Map<String, ModelDescriptor> models = new LinkedHashMap<>();
+
+    private ModelManifest(final AssetManager assetManager) throws IOException {
+        final List<String> assets = Arrays.asList(assetManager.list(""));
+        if (assets.contains(MANIFEST_FILENAME)) {
+            for (final ModelDescriptor descriptor : read(assetManager)) {
+                if (descriptor.getFile() == null) {
+                    LOGGER.w("Skipping %s entry without a file", MANIFEST_FILENAME);
+                } else if (!assets.contains(descriptor.getFile())) {
+                    LOGGER.w("%s is listed in %s but not bundled", descriptor.getFile(), MANIFEST_FILENAME);
+                } else {
+                    models.put(descriptor.getFile(), descriptor);
+                }
+            }
+        }
+        for (final String asset : assets) {
+            if (asset.endsWith(MODEL_EXTENSION) && !models.containsKey(asset)) {
+                models.put(asset, ModelDescriptor.of(asset));
+            }
+        }
+    }
+
+    private static List<ModelDescriptor> read(final AssetManager assetManager) throws IOException {
+        try (Reader reader = new InputStreamReader(
+                assetManager.open(MANIFEST_FILENAME), Charset.forName("UTF-8"))) {
+            final Document document = new Gson().fromJson(reader, Document.class);
+            if (document != null && document.models != null) {
+                return document.models;
+            }
+        } catch (JsonParseException e) {
+            LOGGER.e(e, "Ignoring malformed %s", MANIFEST_FILENAME);
+        }
+        return new ArrayList<>();
+    }
+
+    /** Returns whether {@code file} is a bundled model. */
+    public boolean contains(final String file) {
+        return models.containsKey(file);
+    }
+
+    /** Returns the descriptor of {@code file}; defaults if it is not a bundled model. */
+    public ModelDescriptor getDescriptor(final String file) {
+        final ModelDescriptor descriptor = models.get(file);
+        return descriptor != null ? descriptor : ModelDescriptor.of(file);
+    }
+
+    /** Returns the bundled models with one of the ModelDescriptor.ROLE_* roles. */
+    public ArrayList<String> getModelFiles(final String role) {
+        final ArrayList<String> files = new ArrayList<>();
+        for (final ModelDescriptor descriptor : models.values()) {
+            if (descriptor.getRole().equals(role)) {
+                files.add(descriptor.getFile());
+            }
+        }
+        return files;
+    }
+}
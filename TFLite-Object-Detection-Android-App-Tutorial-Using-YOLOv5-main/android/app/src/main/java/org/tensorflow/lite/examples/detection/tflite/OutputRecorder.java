@@ -0,0 +1,98 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import org.tensorflow.lite.examples.detection.core.OutputRecording;
+import org.tensorflow.lite.examples.detection.core.TensorSpec;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends raw model outputs to an {@link OutputRecording} file, so that real sessions can be
+ * replayed through decoding and NMS off the device.
+ *
+ * <p>Each frame is copied into one of a few spare buffer sets and written on a background thread.
+ * When all of them are still waiting for the disk, the frame is skipped instead of stalling
+ * inference.
+ */
+final class OutputRecorder {
+    private static final Logger LOGGER = new Logger();
+
+    private static final int MAX_PENDING_FRAMES = 3;
+
+    private final File file;
+    private final OutputRecording.Writer writer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<ByteBuffer[]> spare = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+    private volatile boolean failed;
+    private boolean closed;
+    private int offered;
+    private int skipped;
+
+    /** @param outputs specs of a batch of one, as passed to the decoder */
+    OutputRecorder(final File file, final int inputSize, final String layout, final int[] anchors,
+                   final TensorSpec[] outputs) throws IOException {
+        this.file = file;
+        this.writer = new OutputRecording.Writer(new FileOutputStream(file), inputSize, layout, anchors, outputs);
+        for (int k = 0; k < MAX_PENDING_FRAMES; ++k) {
+            final ByteBuffer[] buffers = new ByteBuffer[outputs.length];
+            for (int i = 0; i < outputs.length; ++i) {
+                buffers[i] = ByteBuffer.allocate(outputs[i].numBytes);
+            }
+            spare.add(buffers);
+        }
+    }
+
+    /** Queues a copy of {@code outputs}; called on the inference thread right after the run. */
+    synchronized void offer(final ByteBuffer[] outputs) {
+        if (closed) {
+            return;
+        }
+        ++offered;
+        final ByteBuffer[] copy = failed ? null : spare.poll();
+        if (copy == null) {
+            ++skipped;
+            return;
+        }
+        for (int i = 0; i < copy.length; ++i) {
+            final ByteBuffer source = outputs[i].duplicate();
+            source.clear();
+            source.limit(copy[i].capacity());
+            copy[i].clear();
+            copy[i].put(source);
+        }
+        executor.execute(() -> {
+            try {
+                writer.write(copy);
+            } catch (final IOException e) {
+                LOGGER.e(e, "Recording to %s failed", file);
+                failed = true;
+            } finally {
+                spare.add(copy);
+            }
+        });
+    }
+
+    /** Writes the frames still queued and closes the file. */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            writer.close();
+        } catch (final InterruptedException | IOException e) {
+            LOGGER.e(e, "Could not finish %s", file);
+        }
+        LOGGER.i("Recorded %d of %d frames to %s", offered - skipped, offered, file);
+    }
+}
@@ -0,0 +1,209 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.RectF;
+import android.os.PowerManager;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Chooses the detector input resolution at runtime.
+ *
+ * <p>The controller is fed the inference latency, the detections and the device thermal status
+ * of every frame, and answers with the input size the next frame should use. It steps down when
+ * the latency budget is exceeded or the device heats up, and steps up only when there is head
+ * room and recent frames contained objects that are small relative to the current input.
+ *
+ * <p>The model's own input size is always a candidate, so a model exported at a size outside the
+ * list still starts, and stays, at its native resolution unless another size is chosen.
+ */
+public class ResolutionController {
+    private static final Logger LOGGER = new Logger();
+
+    public static final int[] DEFAULT_INPUT_SIZES = new int[]{320, 416, 640};
+
+    // Weight of the newest sample in the latency moving average.
+    private static final float LATENCY_EMA_ALPHA = 0.2f;
+    // Frames to wait after a switch before the next decision, so the average can settle.
+    private static final int MIN_FRAMES_BETWEEN_SWITCHES = 15;
+    // Objects whose shorter side is below this fraction of the input are "small".
+    private static final float SMALL_OBJECT_FRACTION = 0.06f;
+    // Objects whose shorter side is above this fraction of the input are "large".
+    private static final float LARGE_OBJECT_FRACTION = 0.25f;
+    // Number of recent frames considered when looking at object sizes.
+    private static final int OBJECT_HISTORY = 10;
+
+    // The sizes passed in, without the size of any particular model.
+    private final int[] baseSizes;
+    private int[] inputSizes;
+    private boolean[] unsupported;
+    private final long latencyBudgetMs;
+    private final float[] minObjectFractions = new float[OBJECT_HISTORY];
+
+    private int current;
+    private float latencyEma = -1;
+    private int framesSinceSwitch = 0;
+    private int frameCount = 0;
+
+    public ResolutionController(final int[] inputSizes, final int initialSize, final long latencyBudgetMs) {
+        this.baseSizes = Arrays.copyOf(inputSizes, inputSizes.length);
+        this.latencyBudgetMs = latencyBudgetMs;
+        setCandidates(initialSize);
+        Arrays.fill(minObjectFractions, Float.NaN);
+    }
+
+    // The base sizes plus nativeSize, sorted, with current at nativeSize.
+    private void setCandidates(final int nativeSize) {
+        boolean listed = false;
+        for (final int size : baseSizes) {
+            listed |= size == nativeSize;
+        }
+        inputSizes = Arrays.copyOf(baseSizes, baseSizes.length + (listed ? 0 : 1));
+        if (!listed) {
+            inputSizes[baseSizes.length] = nativeSize;
+            LOGGER.i("Input size %d added to the candidates %s", nativeSize, Arrays.toString(baseSizes));
+        }
+        Arrays.sort(inputSizes);
+        unsupported = new boolean[inputSizes.length];
+        current = indexOf(nativeSize);
+    }
+
+    public synchronized int getInputSize() {
+        return inputSizes[current];
+    }
+
+    /**
+     * Records one processed frame and returns the input size that should be used next.
+     *
+     * @param latencyMs     time spent in {@link Classifier#recognizeImage}
+     * @param results       detections in input (crop) coordinates
+     * @param thermalStatus one of the {@code PowerManager.THERMAL_STATUS_*} values
+     */
+    public synchronized int onFrame(final long latencyMs, final List<Classifier.Recognition> results,
+                                    final int thermalStatus) {
+        latencyEma = latencyEma < 0 ? latencyMs
+                : LATENCY_EMA_ALPHA * latencyMs + (1 - LATENCY_EMA_ALPHA) * latencyEma;
+        minObjectFractions[frameCount++ % OBJECT_HISTORY] = minObjectFraction(results);
+        ++framesSinceSwitch;
+
+        final int maxIndex = maxIndexForThermal(thermalStatus);
+        if (current > maxIndex) {
+            return switchTo(maxIndex, "thermal status " + thermalStatus);
+        }
+        if (framesSinceSwitch < MIN_FRAMES_BETWEEN_SWITCHES) {
+            return getInputSize();
+        }
+
+        final float smallest = recentMinObjectFraction();
+        final int down = nextSupported(current, -1);
+        final int up = nextSupported(current, 1);
+        if (down >= 0 && latencyEma > latencyBudgetMs) {
+            return switchTo(down, "latency " + (int) latencyEma + "ms over budget");
+        }
+        if (down >= 0 && smallest > LARGE_OBJECT_FRACTION) {
+            return switchTo(down, "only large objects");
+        }
+        if (up >= 0 && up <= maxIndex && smallest < SMALL_OBJECT_FRACTION
+                && projectedLatency(up) < latencyBudgetMs * 0.9f) {
+            return switchTo(up, "small objects");
+        }
+        return getInputSize();
+    }
+
+    /**
+     * Reports that the model could not be resized to {@code requestedSize}. That size is not
+     * proposed again until {@link #reset}, and the controller goes back to {@code actualSize}.
+     */
+    public synchronized void onSwitchFailed(final int requestedSize, final int actualSize) {
+        final int index = indexOf(requestedSize);
+        if (index >= 0) {
+            unsupported[index] = true;
+        }
+        final int actual = indexOf(actualSize);
+        if (actual >= 0) {
+            current = actual;
+        }
+    }
+
+    /**
+     * Resets the controller to {@code inputSize}, e.g. after the model was reloaded. A size that
+     * only the previous model used is no longer a candidate.
+     */
+    public synchronized void reset(final int inputSize) {
+        setCandidates(inputSize);
+        Arrays.fill(minObjectFractions, Float.NaN);
+        latencyEma = -1;
+        framesSinceSwitch = 0;
+    }
+
+    private int switchTo(final int index, final String reason) {
+        if (index != current) {
+            LOGGER.i("Input size %d -> %d (%s)", inputSizes[current], inputSizes[index], reason);
+            // Seed the average with the expected cost so the next decision is not made on stale data.
+            latencyEma = projectedLatency(index);
+            current = index;
+            framesSinceSwitch = 0;
+        }
+        return getInputSize();
+    }
+
+    // Inference cost grows roughly with the number of input pixels.
+    private float projectedLatency(final int index) {
+        final float ratio = (float) inputSizes[index] / inputSizes[current];
+        return latencyEma * ratio * ratio;
+    }
+
+    private int maxIndexForThermal(final int thermalStatus) {
+        final int last = inputSizes.length - 1;
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+            return 0;
+        } else if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+            return Math.max(0, Math.min(current, last - 1));
+        }
+        return last;
+    }
+
+    private int nextSupported(final int from, final int step) {
+        for (int i = from + step; i >= 0 && i < inputSizes.length; i += step) {
+            if (!unsupported[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns NaN for frames without detections so that they count neither as small nor large.
+    private float minObjectFraction(final List<Classifier.Recognition> results) {
+        if (results.isEmpty()) {
+            return Float.NaN;
+        }
+        float min = 1.0f;
+        final float size = getInputSize();
+        for (final Classifier.Recognition result : results) {
+            final RectF location = result.getLocation();
+            min = Math.min(min, Math.min(location.width(), location.height()) / size);
+        }
+        return min;
+    }
+
+    private float recentMinObjectFraction() {
+        float min = Float.NaN;
+        for (final float fraction : minObjectFractions) {
+            if (!Float.isNaN(fraction) && !(fraction >= min)) {
+                min = fraction;
+            }
+        }
+        return min;
+    }
+
+    private int indexOf(final int inputSize) {
+        for (int i = 0; i < inputSizes.length; ++i) {
+            if (inputSizes[i] == inputSize) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
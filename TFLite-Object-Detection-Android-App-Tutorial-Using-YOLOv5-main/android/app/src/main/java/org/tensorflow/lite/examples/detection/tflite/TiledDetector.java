@@ -0,0 +1,174 @@
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a detector over a large image by splitting it into overlapping tiles.
+ *
+ * <p>Tiles are decoded one region at a time with a {@link BitmapRegionDecoder}, so the full
+ * resolution image is never held in memory. Every detector in the pool owns one reusable tile
+ * bitmap, which bounds memory to the pool size no matter how large the photo is. Detections are
+ * mapped back to full-image coordinates and merged with a cross-tile non maximum suppression.
+ */
+public class TiledDetector {
+    private static final Logger LOGGER = new Logger();
+
+    // Fraction of a tile shared with its neighbour, so objects on a seam are seen whole once.
+    public static final float DEFAULT_OVERLAP = 0.2f;
+
+    private final BlockingQueue<Worker> idleWorkers;
+    private final ExecutorService executor;
+    private final YoloV5Classifier nmsDetector;
+    private final int tileSize;
+    private final float overlap;
+
+    /**
+     * @param detectors pool of detectors with the same model; each runs one tile at a time
+     * @param tileSize  side of a tile in source pixels; tiles are scaled to the model input size
+     * @param overlap   fraction of the tile size shared by neighbouring tiles
+     */
+    public TiledDetector(final List<YoloV5Classifier> detectors, final int tileSize, final float overlap) {
+        if (detectors.isEmpty()) {
+            throw new IllegalArgumentException("At least one detector is required");
+        }
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+        this.nmsDetector = detectors.get(0);
+        this.idleWorkers = new ArrayBlockingQueue<>(detectors.size());
+        for (final YoloV5Classifier detector : detectors) {
+            idleWorkers.add(new Worker(detector, tileSize));
+        }
+        this.executor = Executors.newFixedThreadPool(detectors.size());
+    }
+
+    /**
+     * Detects objects in the whole image behind {@code decoder}.
+     *
+     * @return detections in full-image coordinates
+     */
+    public List<Classifier.Recognition> recognizeTiled(final BitmapRegionDecoder decoder)
+            throws InterruptedException {
+        final List<Rect> tiles = computeTiles(decoder.getWidth(), decoder.getHeight(), tileSize, overlap);
+        LOGGER.i("Detecting %dx%d image in %d tiles", decoder.getWidth(), decoder.getHeight(), tiles.size());
+
+        final List<Future<List<Classifier.Recognition>>> futures = new ArrayList<>(tiles.size());
+        for (final Rect tile : tiles) {
+            futures.add(executor.submit(() -> {
+                final Worker worker = idleWorkers.take();
+                try {
+                    return worker.recognizeTile(decoder, tile);
+                } finally {
+                    idleWorkers.put(worker);
+                }
+            }));
+        }
+
+        final ArrayList<Classifier.Recognition> merged = new ArrayList<>();
+        for (final Future<List<Classifier.Recognition>> future : futures) {
+            try {
+                merged.addAll(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return nmsDetector.nms(merged);
+    }
+
+    /** Stops the worker threads. The detectors are owned, and closed, by the caller. */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Splits a {@code width} x {@code height} image into square tiles of {@code tileSize} that
+     * overlap by {@code overlap}. Edge tiles are shifted inwards instead of shrunk, so that every
+     * tile has the same size unless the image itself is smaller than a tile.
+     */
+    public static List<Rect> computeTiles(final int width, final int height, final int tileSize,
+                                          final float overlap) {
+        final int[] xs = tileOffsets(width, tileSize, overlap);
+        final int[] ys = tileOffsets(height, tileSize, overlap);
+        final List<Rect> tiles = new ArrayList<>(xs.length * ys.length);
+        for (final int y : ys) {
+            for (final int x : xs) {
+                tiles.add(new Rect(x, y, Math.min(width, x + tileSize), Math.min(height, y + tileSize)));
+            }
+        }
+        return tiles;
+    }
+
+    private static int[] tileOffsets(final int length, final int tileSize, final float overlap) {
+        if (length <= tileSize) {
+            return new int[]{0};
+        }
+        final int stride = Math.max(1, (int) (tileSize * (1 - overlap)));
+        final int count = (int) Math.ceil((double) (length - tileSize) / stride) + 1;
+        final int[] offsets = new int[count];
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = Math.min(i * stride, length - tileSize);
+        }
+        return offsets;
+    }
+
+    /** A detector together with the bitmaps it reuses for every tile. */
+    private static class Worker {
+        private final YoloV5Classifier detector;
+        private final BitmapFactory.Options options = new BitmapFactory.Options();
+        private final Bitmap inputBitmap;
+        private final Canvas inputCanvas;
+        private final Matrix tileToInput = new Matrix();
+        private final float scale;
+
+        Worker(final YoloV5Classifier detector, final int tileSize) {
+            this.detector = detector;
+            final int inputSize = detector.getInputSize();
+            this.scale = (float) inputSize / tileSize;
+            this.inputBitmap = Bitmap.createBitmap(inputSize, inputSize, Bitmap.Config.ARGB_8888);
+            this.inputCanvas = new Canvas(inputBitmap);
+            this.options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            this.options.inMutable = true;
+            this.options.inBitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
+            this.tileToInput.setScale(scale, scale);
+        }
+
+        List<Classifier.Recognition> recognizeTile(final BitmapRegionDecoder decoder, final Rect tile) {
+            // Decodes into options.inBitmap, so full-size tiles never allocate a new bitmap.
+            final Bitmap tileBitmap = decoder.decodeRegion(tile, options);
+            inputBitmap.eraseColor(Color.BLACK);
+            inputCanvas.drawBitmap(tileBitmap, tileToInput, null);
+            if (tileBitmap != options.inBitmap) {
+                tileBitmap.recycle();
+            }
+
+            final List<Classifier.Recognition> results = detector.recognizeImage(inputBitmap);
+            for (final Classifier.Recognition result : results) {
+                final RectF location = result.getLocation();
+                location.set(
+                        tile.left + location.left / scale,
+                        tile.top + location.top / scale,
+                        Math.min(tile.right, tile.left + location.right / scale),
+                        Math.min(tile.bottom, tile.top + location.bottom / scale));
+                result.setLocation(location);
+            }
+            return results;
+        }
+    }
+}
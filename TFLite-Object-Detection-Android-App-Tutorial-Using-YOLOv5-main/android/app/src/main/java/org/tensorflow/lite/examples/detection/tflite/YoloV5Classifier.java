@@ -19,28 +19,37 @@ import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 import android.os.Build;
-import android.util.Log;
 
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.detection.MainActivity;
+import org.tensorflow.lite.examples.detection.core.DetectionCandidates;
+import org.tensorflow.lite.examples.detection.core.FloatInputPacker;
+import org.tensorflow.lite.examples.detection.core.OutputDecoder;
+import org.tensorflow.lite.examples.detection.core.OutputRecording;
+import org.tensorflow.lite.examples.detection.core.TensorSpec;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
 import org.tensorflow.lite.examples.detection.env.Utils;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 
@@ -57,110 +66,390 @@ public class YoloV5Classifier implements Classifier {
     /**
      * Initializes a native TensorFlow session for classifying images.
      *
-     * @param assetManager  The asset manager to be used to load assets.
-     * @param modelFilename The filepath of the model GraphDef protocol buffer.
-     * @param labelFilename The filepath of label file for classes.
-     * @param isQuantized   Boolean representing model is quantized or not
+     * @param assetManager The asset manager to be used to load assets.
+     * @param descriptor   The model, as described in the {@link ModelManifest}. Whatever it
+     *                     leaves out is read from the model's tensors.
      */
-    public static YoloV5Classifier create(
-            final AssetManager assetManager,
-            final String modelFilename,
-            final String labelFilename,
-            final boolean isQuantized,
-            final int inputSize
-            /*final int[] output_width,
-            final int[][] masks,
-            final int[] anchors*/)
+    public static YoloV5Classifier create(final AssetManager assetManager, final ModelDescriptor descriptor)
             throws IOException {
         final YoloV5Classifier d = new YoloV5Classifier();
+        final String modelFilename = descriptor.getFile();
+        final Boolean isQuantized = descriptor.isQuantized();
+        final int inputSize = descriptor.getInputSize();
 
-        String actualFilename = labelFilename.split("file:///android_asset/")[1];
+        String actualFilename = descriptor.getLabelFilename();
         InputStream labelsInput = assetManager.open(actualFilename);
         BufferedReader br = new BufferedReader(new InputStreamReader(labelsInput));
         String line;
         while ((line = br.readLine()) != null) {
-            LOGGER.w(line);
             d.labels.add(line);
         }
         br.close();
+        LOGGER.i("Loaded %d labels from %s", d.labels.size(), actualFilename);
 
         try {
-            Interpreter.Options options = (new Interpreter.Options());
-            options.setNumThreads(NUM_THREADS);
-            if (isNNAPI) {
-                d.nnapiDelegate = null;
-                // Initialize interpreter with NNAPI delegate for Android Pie or above
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    d.nnapiDelegate = new NnApiDelegate();
-                    options.addDelegate(d.nnapiDelegate);
-                    options.setNumThreads(NUM_THREADS);
-//                    options.setUseNNAPI(false);
-//                    options.setAllowFp16PrecisionForFp32(true);
-//                    options.setAllowBufferHandleOutput(true);
-                    options.setUseNNAPI(true);
-                }
-            }
-            if (isGPU) {
-                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
-                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
-                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
-                d.gpuDelegate = new GpuDelegate(gpu_options);
-                options.addDelegate(d.gpuDelegate);
-            }
             d.tfliteModel = Utils.loadModelFile(assetManager, modelFilename);
-            d.tfLite = new Interpreter(d.tfliteModel, options);
+            d.modelFilename = modelFilename;
+            final String device = isGPU ? DetectorFactory.DEVICE_GPU
+                    : isNNAPI ? DetectorFactory.DEVICE_NNAPI : DetectorFactory.DEVICE_CPU;
+            d.installBackend(d.prepareBackend(device, NUM_THREADS));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
-        d.isModelQuantized = isQuantized;
-        // Pre-allocate buffers.
+        final Tensor input = d.tfLite.getInputTensor(0);
+        d.isModelQuantized = isQuantized != null ? isQuantized
+                : input.dataType() == DataType.UINT8 || input.dataType() == DataType.INT8;
+        if (d.isModelQuantized){
+            d.inp_scale = input.quantizationParams().getScale();
+            d.inp_zero_point = input.quantizationParams().getZeroPoint();
+            d.buildInputTable(input.dataType() == DataType.INT8);
+        }
+
+        // Output quantization is handled per output tensor by the decoder.
+        d.outputLayout = descriptor.getOutputLayout();
+        d.anchors = descriptor.getAnchors();
+        d.decoder = OutputDecoder.create(d.outputLayout, d.anchors, getOutputSpecs(d.tfLite));
+        if (d.decoder.getNumClasses() != d.labels.size()) {
+            LOGGER.w("%s has %d classes, %s has %d labels", modelFilename, d.decoder.getNumClasses(),
+                    actualFilename, d.labels.size());
+        }
+        d.allocateBuffers(input.shape()[1]);
+        if (inputSize > 0 && !d.setInputSize(inputSize)) {
+            LOGGER.w("%s runs at its exported size %d", modelFilename, d.getInputSize());
+        }
+        return d;
+    }
+
+    // The decoder does not depend on TensorFlow Lite; it only needs the output shapes and quantization.
+    private static TensorSpec[] getOutputSpecs(final Interpreter interpreter) {
+        final TensorSpec[] specs = new TensorSpec[interpreter.getOutputTensorCount()];
+        for (int i = 0; i < specs.length; ++i) {
+            final Tensor tensor = interpreter.getOutputTensor(i);
+            final int type = tensor.dataType() == DataType.UINT8 ? TensorSpec.UINT8
+                    : tensor.dataType() == DataType.INT8 ? TensorSpec.INT8 : TensorSpec.FLOAT32;
+            specs[i] = new TensorSpec(tensor.shape(), type, tensor.quantizationParams().getScale(),
+                    tensor.quantizationParams().getZeroPoint(), tensor.numBytes());
+        }
+        return specs;
+    }
+
+    // Maps every 8-bit channel value to its quantized input value once, instead of per pixel.
+    private void buildInputTable(final boolean signed) {
+        final int min = signed ? -128 : 0;
+        final int max = signed ? 127 : 255;
+        inputTableIsIdentity = !signed;
+        for (int v = 0; v < 256; ++v) {
+            final int q = Math.round((v - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point);
+            inputTable[v] = (byte) Math.max(min, Math.min(max, q));
+            inputTableIsIdentity &= q == v;
+        }
+        LOGGER.i("Quantized input: scale %f, zero point %d%s", inp_scale, inp_zero_point,
+                inputTableIsIdentity ? ", copied as is" : "");
+    }
+
+    // Pre-allocate buffers.
+    private void allocateBuffers(final int inputSize) {
         int numBytesPerChannel;
-        if (isQuantized) {
+        if (isModelQuantized) {
             numBytesPerChannel = 1; // Quantized
         } else {
             numBytesPerChannel = 4; // Floating point
         }
-        d.INPUT_SIZE = inputSize;
-        d.imgData = ByteBuffer.allocateDirect(1 * d.INPUT_SIZE * d.INPUT_SIZE * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.intValues = new int[d.INPUT_SIZE * d.INPUT_SIZE];
-
-        d.output_box = (int) ((Math.pow((inputSize / 32), 2) + Math.pow((inputSize / 16), 2) + Math.pow((inputSize / 8), 2)) * 3);
-//        d.OUTPUT_WIDTH = output_width;
-//        d.MASKS = masks;
-//        d.ANCHORS = anchors;
-        if (d.isModelQuantized){
-            Tensor inpten = d.tfLite.getInputTensor(0);
-            d.inp_scale = inpten.quantizationParams().getScale();
-            d.inp_zero_point = inpten.quantizationParams().getZeroPoint();
-            Tensor oupten = d.tfLite.getOutputTensor(0);
-            d.oup_scale = oupten.quantizationParams().getScale();
-            d.oup_zero_point = oupten.quantizationParams().getZeroPoint();
-        }
-
-        int[] shape = d.tfLite.getOutputTensor(0).shape();
-        int numClass = shape[shape.length - 1] - 5;
-        d.numClass = numClass;
-        d.outData = ByteBuffer.allocateDirect(d.output_box * (numClass + 5) * numBytesPerChannel);
-        d.outData.order(ByteOrder.nativeOrder());
-        return d;
+        INPUT_SIZE = inputSize;
+        imgData = ByteBuffer.allocateDirect(1 * INPUT_SIZE * INPUT_SIZE * 3 * numBytesPerChannel);
+        imgData.order(ByteOrder.nativeOrder());
+        imgFloats = isModelQuantized ? null : imgData.asFloatBuffer();
+        intValues = new int[INPUT_SIZE * INPUT_SIZE];
+        quantizedPixels = isModelQuantized ? new byte[INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE] : null;
+
+        // The output shapes follow the input size.
+        outputSpecs = getOutputSpecs(tfLite);
+        decoder.configure(outputSpecs);
+        outData = new ByteBuffer[decoder.getOutputCount()];
+        outputMap.clear();
+        for (int i = 0; i < outData.length; ++i) {
+            outData[i] = ByteBuffer.allocateDirect(decoder.getImageBytes(i));
+            outData[i].order(ByteOrder.nativeOrder());
+            outputMap.put(i, outData[i]);
+        }
+        inputArray[0] = imgData;
+        batchBufferSize = 0; // batch buffers are sized from the buffers above
+        if (recorder != null) {
+            // A recording holds a single output shape, so a new size goes to a new file.
+            recorder.close();
+            openRecorder();
+        }
     }
 
     public int getInputSize() {
         return INPUT_SIZE;
     }
+
+    /**
+     * Resizes the input tensor to {@code inputSize} x {@code inputSize} and reallocates the
+     * pre-allocated buffers. Must be called from the thread that runs {@link #recognizeImage}.
+     *
+     * @return false if the model cannot run at that size; the previous size is kept in that case.
+     */
+    public boolean setInputSize(final int inputSize) {
+        if (inputSize == INPUT_SIZE) {
+            return true;
+        }
+        try {
+            resizeInterpreter(inputSize);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            LOGGER.w(e, "Model cannot be resized to %d, keeping %d", inputSize, INPUT_SIZE);
+            resizeInterpreter(INPUT_SIZE);
+            return false;
+        }
+        allocateBuffers(inputSize);
+        return true;
+    }
+
+    /**
+     * The delegate, thread count and input size this detector runs with, for {@link #restore}.
+     */
+    public static final class Settings {
+        private final String device;
+        private final int numThreads;
+        private final int inputSize;
+
+        private Settings(final String device, final int numThreads, final int inputSize) {
+            this.device = device;
+            this.numThreads = numThreads;
+            this.inputSize = inputSize;
+        }
+    }
+
+    public Settings getSettings() {
+        return new Settings(device, numThreads, INPUT_SIZE);
+    }
+
+    /**
+     * Goes back to {@code settings} from {@link #getSettings}, rebuilding the interpreter only if
+     * the delegate changed. Must be called from the thread that runs {@link #recognizeImage}.
+     */
+    public void restore(final Settings settings) {
+        setInputSize(settings.inputSize);
+        if (!settings.device.equals(device)) {
+            numThreads = settings.numThreads;
+            swapBackend(prepareBackend(settings.device, settings.numThreads));
+        } else if (settings.numThreads != numThreads) {
+            setNumThreads(settings.numThreads);
+        }
+    }
+
+    /**
+     * Starts appending the raw outputs of every {@link #recognizeImage} run to a new
+     * {@link OutputRecording} file in {@code directory}, to be replayed off the device with the core
+     * module's {@code OutputReplay}. A resize starts a new file. Must be called from the thread that
+     * runs {@link #recognizeImage}.
+     */
+    public void startRecording(final File directory) {
+        stopRecording();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.w("Cannot create %s", directory);
+            return;
+        }
+        recordingDirectory = directory;
+        openRecorder();
+    }
+
+    public void stopRecording() {
+        final OutputRecorder current = recorder;
+        recorder = null;
+        recordingDirectory = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void openRecorder() {
+        final String name = modelFilename.replace(".tflite", "");
+        final File file = new File(recordingDirectory, String.format(Locale.US, "%s-%d-%d.ytr",
+                name, INPUT_SIZE, System.currentTimeMillis()));
+        try {
+            recorder = new OutputRecorder(file, INPUT_SIZE, outputLayout, anchors, outputSpecs);
+        } catch (final IOException e) {
+            LOGGER.w(e, "Cannot record to %s", file);
+            recorder = null;
+        }
+    }
+
+    private void resizeInterpreter(final int inputSize) {
+        resizeInterpreter(BATCH_SIZE, inputSize);
+    }
+
+    private void resizeInterpreter(final int batchSize, final int inputSize) {
+        resizeInterpreter(tfLite, batchSize, inputSize);
+        interpreterBatchSize = batchSize;
+    }
+
+    private static void resizeInterpreter(final Interpreter interpreter, final int batchSize, final int inputSize) {
+        interpreter.resizeInput(0, new int[]{batchSize, inputSize, inputSize, PIXEL_SIZE});
+        interpreter.allocateTensors();
+    }
+
+    // Returns null when caching is disabled. Delegates are compiled for the model's own input shape,
+    // so a model resized to another input size is compiled from scratch every time.
+    private synchronized String getCacheToken() {
+        if (cacheToken == null && DelegateCache.getDirectory() != null) {
+            cacheToken = DelegateCache.getModelToken(modelFilename, tfliteModel);
+        }
+        if (INPUT_SIZE > 0 && INPUT_SIZE != modelInputSize) {
+            return null;
+        }
+        return cacheToken;
+    }
+
+    /**
+     * An interpreter built by {@link #prepareBackend} together with the delegate it owns.
+     */
+    public static final class Backend {
+        private final MappedByteBuffer model;
+        private final String device;
+        private final Interpreter interpreter;
+        private final GpuDelegate gpuDelegate;
+        private final NnApiDelegate nnapiDelegate;
+
+        private Backend(final MappedByteBuffer model, final String device, final Interpreter interpreter,
+                        final GpuDelegate gpuDelegate, final NnApiDelegate nnapiDelegate) {
+            this.model = model;
+            this.device = device;
+            this.interpreter = interpreter;
+            this.gpuDelegate = gpuDelegate;
+            this.nnapiDelegate = nnapiDelegate;
+        }
+
+        /** Releases the interpreter first, then the delegate it was using. */
+        public void close() {
+            interpreter.close();
+            if (gpuDelegate != null) {
+                gpuDelegate.close();
+            }
+            if (nnapiDelegate != null) {
+                nnapiDelegate.close();
+            }
+        }
+    }
+
+    /**
+     * Builds a new interpreter for {@code device}, one of the {@code DetectorFactory.DEVICE_*}
+     * values, from the model this detector already holds. Safe to call on any thread while this
+     * detector keeps serving frames; the result takes effect with {@link #swapBackend}.
+     *
+     * @throws RuntimeException if the delegate is not supported on this device or for this model,
+     *     including NNAPI below Android P
+     */
+    public Backend prepareBackend(final String device, final int numThreads) {
+        final Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(numThreads);
+        GpuDelegate gpu = null;
+        NnApiDelegate nnapi = null;
+        // Set explicitly, so CPU means the built-in kernels whatever the runtime default is.
+        options.setUseXNNPACK(device.equals(DetectorFactory.DEVICE_XNNPACK));
+        options.setAllowFp16PrecisionForFp32(device.equals(DetectorFactory.DEVICE_CPU_FP16));
+        try {
+            if (device.equals(DetectorFactory.DEVICE_GPU)) {
+                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
+                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
+                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
+                final String token = getCacheToken();
+                if (token != null) {
+                    gpu_options.setSerializationParams(DelegateCache.getDirectory().getPath(), token + "_gpu");
+                }
+                gpu = new GpuDelegate(gpu_options);
+                options.addDelegate(gpu);
+            } else if (device.equals(DetectorFactory.DEVICE_NNAPI)) {
+                // Initialize interpreter with NNAPI delegate for Android Pie or above
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+                    throw new UnsupportedOperationException(
+                            "NNAPI delegate requires Android P, device is API " + Build.VERSION.SDK_INT);
+                }
+                final NnApiDelegate.Options nnapi_options = new NnApiDelegate.Options();
+                final String token = getCacheToken();
+                if (token != null) {
+                    nnapi_options.setCacheDir(DelegateCache.getDirectory().getPath());
+                    nnapi_options.setModelToken(token + "_nnapi");
+                }
+                nnapi = new NnApiDelegate(nnapi_options);
+                options.addDelegate(nnapi);
+            }
+            final Interpreter interpreter = new Interpreter(tfliteModel, options);
+            if (modelInputSize == 0) {
+                modelInputSize = interpreter.getInputTensor(0).shape()[1];
+            }
+            // Resize here rather than in swapBackend, since delegates re-plan the graph on resize.
+            final int inputSize = INPUT_SIZE;
+            if (inputSize > 0 && interpreter.getInputTensor(0).shape()[1] != inputSize) {
+                resizeInterpreter(interpreter, BATCH_SIZE, inputSize);
+            }
+            return new Backend(tfliteModel, device, interpreter, gpu, nnapi);
+        } catch (RuntimeException e) {
+            if (gpu != null) {
+                gpu.close();
+            }
+            if (nnapi != null) {
+                nnapi.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts using {@code backend} and releases the previous interpreter and its delegate. Must be
+     * called from the thread that runs {@link #recognizeImage}. A backend prepared before this
+     * detector was closed is released instead.
+     */
+    public void swapBackend(final Backend backend) {
+        if (tfLite == null || backend.model != tfliteModel) {
+            backend.close();
+            return;
+        }
+        // The input size may have changed while the backend was being prepared.
+        if (backend.interpreter.getInputTensor(0).shape()[1] != INPUT_SIZE) {
+            resizeInterpreter(backend.interpreter, BATCH_SIZE, INPUT_SIZE);
+        }
+        final Backend previous = new Backend(tfliteModel, device, tfLite, gpuDelegate, nnapiDelegate);
+        installBackend(backend);
+        previous.close();
+    }
+
+    private void installBackend(final Backend backend) {
+        device = backend.device;
+        tfLite = backend.interpreter;
+        interpreterBatchSize = BATCH_SIZE;
+        gpuDelegate = backend.gpuDelegate;
+        nnapiDelegate = backend.nnapiDelegate;
+    }
     @Override
     public void enableStatLogging(final boolean logStats) {
+        metrics = logStats ? PipelineMetrics.get() : null;
     }
 
+    /** p50/p95/p99 of this model's stages, once {@link #enableStatLogging} turned recording on. */
     @Override
     public String getStatString() {
-        return "";
+        final PipelineMetrics metrics = this.metrics;
+        return metrics == null ? "" : metrics.getStatString(Stage.PACK, Stage.INFERENCE, Stage.DECODE, Stage.NMS);
+    }
+
+    private long beginStage(final Stage stage) {
+        final PipelineMetrics metrics = this.metrics;
+        return metrics == null ? 0 : metrics.begin(stage);
+    }
+
+    // Ends the stage if beginStage started it, even if recording was turned off in between.
+    private static void endStage(final Stage stage, final long start) {
+        if (start != 0) {
+            PipelineMetrics.get().end(stage, start);
+        }
     }
 
     @Override
     public void close() {
+        stopRecording();
         tfLite.close();
         tfLite = null;
         if (gpuDelegate != null) {
@@ -175,6 +464,7 @@ public class YoloV5Classifier implements Classifier {
     }
 
     public void setNumThreads(int num_threads) {
+        numThreads = num_threads;
         if (tfLite != null) tfLite.setNumThreads(num_threads);
     }
 
@@ -183,29 +473,25 @@ public class YoloV5Classifier implements Classifier {
 //        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
     }
 
-    private void recreateInterpreter() {
-        if (tfLite != null) {
-            tfLite.close();
-            tfLite = new Interpreter(tfliteModel, tfliteOptions);
-        }
-    }
-
+    // The use* methods switch synchronously; see BackendManager to prepare the switch off-thread.
     public void useGpu() {
-        if (gpuDelegate == null) {
-            gpuDelegate = new GpuDelegate();
-            tfliteOptions.addDelegate(gpuDelegate);
-            recreateInterpreter();
-        }
+        swapBackend(prepareBackend(DetectorFactory.DEVICE_GPU, numThreads));
     }
 
     public void useCPU() {
-        recreateInterpreter();
+        swapBackend(prepareBackend(DetectorFactory.DEVICE_CPU, numThreads));
     }
 
     public void useNNAPI() {
-        nnapiDelegate = new NnApiDelegate();
-        tfliteOptions.addDelegate(nnapiDelegate);
-        recreateInterpreter();
+        swapBackend(prepareBackend(DetectorFactory.DEVICE_NNAPI, numThreads));
+    }
+
+    public void useXNNPACK() {
+        swapBackend(prepareBackend(DetectorFactory.DEVICE_XNNPACK, numThreads));
+    }
+
+    public void useCPUFp16() {
+        swapBackend(prepareBackend(DetectorFactory.DEVICE_CPU_FP16, numThreads));
     }
 
     @Override
@@ -223,15 +509,6 @@ public class YoloV5Classifier implements Classifier {
     //config yolo
     private int INPUT_SIZE = -1;
 
-//    private int[] OUTPUT_WIDTH;
-//    private int[][] MASKS;
-//    private int[] ANCHORS;
-    private  int output_box;
-
-    private static final float[] XYSCALE = new float[]{1.2f, 1.1f, 1.05f};
-
-    private static final int NUM_BOXES_PER_BLOCK = 3;
-
     // Number of threads in the java app
     private static final int NUM_THREADS = 1;
     private static boolean isNNAPI = false;
@@ -247,8 +524,20 @@ public class YoloV5Classifier implements Classifier {
     /** The loaded TensorFlow Lite model. */
     private MappedByteBuffer tfliteModel;
 
-    /** Options for configuring the Interpreter. */
-    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
+    /** Asset name of the model, used to name its delegate cache entries. */
+    private String modelFilename;
+
+    /** Input size the model was exported with, before any resize. */
+    private volatile int modelInputSize;
+
+    /** Delegate cache token of the model, computed on first use. */
+    private String cacheToken;
+
+    /** Thread count for interpreters built by {@link #prepareBackend} through the use* methods. */
+    private int numThreads = NUM_THREADS;
+
+    /** The {@code DetectorFactory.DEVICE_*} the current interpreter was built for. */
+    private String device;
 
     // Config values.
 
@@ -257,95 +546,56 @@ public class YoloV5Classifier implements Classifier {
     private int[] intValues;
 
     private ByteBuffer imgData;
-    private ByteBuffer outData;
+    private FloatBuffer imgFloats; // float view of imgData, for float models
+    private final FloatInputPacker floatPacker = new FloatInputPacker(IMAGE_MEAN, IMAGE_STD);
+    private ByteBuffer[] outData;
+    private final Object[] inputArray = new Object[1];
+    private final Map<Integer, Object> outputMap = new HashMap<>();
+
+    private OutputDecoder decoder;
+    private String outputLayout; // as given by the descriptor, null when detected
+    private int[] anchors;
+    private TensorSpec[] outputSpecs;
+    // Set by startRecording; null when outputs are not recorded.
+    private volatile OutputRecorder recorder;
+    private File recordingDirectory;
+    private final DetectionCandidates candidates = new DetectionCandidates();
+    // Set by enableStatLogging; null means the stages are not timed.
+    private volatile PipelineMetrics metrics;
 
     private Interpreter tfLite;
     private float inp_scale;
     private int inp_zero_point;
-    private float oup_scale;
-    private int oup_zero_point;
-    private int numClass;
+    // Quantized input value of every 8-bit channel value, and whether that is the value itself.
+    private final byte[] inputTable = new byte[256];
+    private boolean inputTableIsIdentity;
+    // One image of quantized input, filled in Java and copied into the input buffer in one go.
+    private byte[] quantizedPixels;
     private YoloV5Classifier() {
     }
 
-    //non maximum suppression
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
-
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
-        }
-        return nmsList;
-    }
-
     protected float mNmsThresh = 0.6f;
 
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
-    }
-
-    protected float box_intersection(RectF a, RectF b) {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-        return area;
-    }
+    protected static final int BATCH_SIZE = 1;
+    protected static final int PIXEL_SIZE = 3;
 
-    protected float box_union(RectF a, RectF b) {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-        return u;
-    }
+    // Upper bound for the adaptive batch size of recognizeImages.
+    private static final int MAX_BATCH_SIZE = 8;
 
-    protected float overlap(float x1, float w1, float x2, float w2) {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
-    }
+    // Batch size recognizeImages currently uses, tuned from the measured per-image time.
+    private int preferredBatchSize = 2;
+    private long bestPerImageNs = Long.MAX_VALUE;
+    private boolean batchingSupported = true;
+    // Batch dimension the interpreter is allocated for. recognizeImages leaves it at its last batch
+    // size, so consecutive batches of the same size run without reallocating the tensors.
+    private int interpreterBatchSize = BATCH_SIZE;
 
-    protected static final int BATCH_SIZE = 1;
-    protected static final int PIXEL_SIZE = 3;
+    // Buffers for the batch size last used by recognizeImages.
+    private int batchBufferSize = 0;
+    private ByteBuffer batchImgData;
+    private FloatBuffer batchImgFloats;
+    private ByteBuffer[] batchOutData;
+    private final Map<Integer, Object> batchOutputMap = new HashMap<>();
 
     /**
      * Writes Image data into a {@code ByteBuffer}.
@@ -354,107 +604,233 @@ public class YoloV5Classifier implements Classifier {
 //        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
 //        byteBuffer.order(ByteOrder.nativeOrder());
 //        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
+        imgData.rewind();
+        putBitmap(bitmap, imgData, imgFloats);
+        return imgData;
+    }
+
+    /**
+     * Appends the pixels of {@code bitmap} to {@code imgData} at its current position.
+     */
+    private void putBitmap(Bitmap bitmap, ByteBuffer imgData, FloatBuffer imgFloats) {
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
 
-        imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
+        if (isModelQuantized) {
+            putQuantizedPixels(imgData);
+            return;
+        }
+        // imgFloats views imgData from its start, so the float offset is the byte position / 4.
+        final int position = imgData.position();
+        floatPacker.pack(intValues, INPUT_SIZE, INPUT_SIZE, imgFloats, position / 4);
+        imgData.position(position + INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE * 4);
+    }
+
+    // No float arithmetic: each channel is copied, or looked up in inputTable.
+    private void putQuantizedPixels(ByteBuffer imgData) {
+        final int[] pixels = intValues;
+        final byte[] out = quantizedPixels;
+        final int count = INPUT_SIZE * INPUT_SIZE;
+        if (inputTableIsIdentity) {
+            for (int i = 0, k = 0; i < count; ++i, k += 3) {
+                final int pixelValue = pixels[i];
+                out[k] = (byte) (pixelValue >> 16);
+                out[k + 1] = (byte) (pixelValue >> 8);
+                out[k + 2] = (byte) pixelValue;
+            }
+        } else {
+            final byte[] table = inputTable;
+            for (int i = 0, k = 0; i < count; ++i, k += 3) {
+                final int pixelValue = pixels[i];
+                out[k] = table[(pixelValue >> 16) & 0xFF];
+                out[k + 1] = table[(pixelValue >> 8) & 0xFF];
+                out[k + 2] = table[pixelValue & 0xFF];
             }
         }
-        return imgData;
+        imgData.put(out, 0, count * PIXEL_SIZE);
     }
 
     public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
-        ByteBuffer byteBuffer_ = convertBitmapToByteBuffer(bitmap);
-
-        Map<Integer, Object> outputMap = new HashMap<>();
+        useSingleImageBatch();
+        long start = beginStage(Stage.PACK);
+        convertBitmapToByteBuffer(bitmap);
+        endStage(Stage.PACK, start);
+        for (final ByteBuffer output : outData) {
+            output.rewind();
+        }
+        start = beginStage(Stage.INFERENCE);
+        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        endStage(Stage.INFERENCE, start);
+        final OutputRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.offer(outData);
+        }
+        return decodeOutput(outData, 0, bitmap.getWidth(), bitmap.getHeight());
+    }
 
-//        float[][][] outbuf = new float[1][output_box][labels.size() + 5];
-        outData.rewind();
-        outputMap.put(0, outData);
-        Log.d("YoloV5Classifier", "mObjThresh: " + getObjThresh());
+    // Shrinks the interpreter back to one image after recognizeImages.
+    private void useSingleImageBatch() {
+        if (interpreterBatchSize != BATCH_SIZE) {
+            resizeInterpreter(INPUT_SIZE);
+        }
+    }
 
-        Object[] inputArray = {imgData};
+    /**
+     * Runs the model and returns only the highest objectness over all boxes, skipping box decoding
+     * and NMS. Used as the gate of a {@link CascadeDetector}.
+     */
+    public float getMaxObjectness(Bitmap bitmap) {
+        useSingleImageBatch();
+        convertBitmapToByteBuffer(bitmap);
+        for (final ByteBuffer output : outData) {
+            output.rewind();
+        }
         tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        return decoder.maxScore(outData);
+    }
 
-        ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(0);
-        byteBuffer.rewind();
-
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
+    /**
+     * Runs several images through the interpreter in batches and returns the results per image,
+     * in input order. All bitmaps must be {@link #getInputSize()} square, like for
+     * {@link #recognizeImage}. The batch size adapts to the best measured time per image; models
+     * whose batch dimension cannot be resized are run one image at a time.
+     */
+    @Override
+    public List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps) {
+        final List<List<Recognition>> results = new ArrayList<>(bitmaps.size());
+        int next = 0;
+        while (next < bitmaps.size()) {
+            final int batchSize = Math.min(batchingSupported ? preferredBatchSize : 1, bitmaps.size() - next);
+            if (batchSize == 1) {
+                results.add(recognizeImage(bitmaps.get(next++)));
+                continue;
+            }
 
-        float[][][] out = new float[1][output_box][numClass + 5];
-        Log.d("YoloV5Classifier", "out[0] detect start");
-        for (int i = 0; i < output_box; ++i) {
-            for (int j = 0; j < numClass + 5; ++j) {
-                if (isModelQuantized){
-                    out[0][i][j] = oup_scale * (((int) byteBuffer.get() & 0xFF) - oup_zero_point);
-                }
-                else {
-                    out[0][i][j] = byteBuffer.getFloat();
-                }
+            if (!useBatchSize(batchSize)) {
+                continue; // Batching was just disabled; retry this chunk one image at a time.
             }
-            // Denormalize xywh
-            for (int j = 0; j < 4; ++j) {
-                out[0][i][j] *= getInputSize();
+            // Measured after any resize, so the hill climb compares inference only.
+            final long startNs = System.nanoTime();
+            results.addAll(runBatch(bitmaps.subList(next, next + batchSize)));
+            next += batchSize;
+            if (batchSize == preferredBatchSize) {
+                tuneBatchSize((System.nanoTime() - startNs) / batchSize);
             }
         }
-        for (int i = 0; i < output_box; ++i){
-            final int offset = 0;
-            final float confidence = out[0][i][4];
-            int detectedClass = -1;
-            float maxClass = 0;
+        return results;
+    }
 
-            final float[] classes = new float[labels.size()];
-            for (int c = 0; c < labels.size(); ++c) {
-                classes[c] = out[0][i][5 + c];
-            }
+    // Hill-climbs the batch size: grow while the time per image improves, back off when it regresses.
+    private void tuneBatchSize(final long perImageNs) {
+        if (perImageNs < bestPerImageNs * 0.95) {
+            bestPerImageNs = perImageNs;
+            preferredBatchSize = Math.min(preferredBatchSize * 2, MAX_BATCH_SIZE);
+        } else if (perImageNs > bestPerImageNs * 1.1) {
+            preferredBatchSize = Math.max(preferredBatchSize / 2, 2);
+        }
+    }
 
-            for (int c = 0; c < labels.size(); ++c) {
-                if (classes[c] > maxClass) {
-                    detectedClass = c;
-                    maxClass = classes[c];
-                }
+    // Resizes the interpreter and the batch buffers to batchSize unless they already are.
+    // Returns false if the model does not accept the batch size.
+    private boolean useBatchSize(final int batchSize) {
+        if (interpreterBatchSize != batchSize) {
+            try {
+                resizeInterpreter(batchSize, INPUT_SIZE);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                LOGGER.w(e, "Model does not support batch size %d, batching disabled", batchSize);
+                batchingSupported = false;
+                resizeInterpreter(INPUT_SIZE);
+                return false;
             }
+        }
 
-            final float confidenceInClass = maxClass * confidence;
-            if (confidenceInClass > getObjThresh()) {
-                final float xPos = out[0][i][0];
-                final float yPos = out[0][i][1];
-
-                final float w = out[0][i][2];
-                final float h = out[0][i][3];
-                Log.d("YoloV5Classifier",
-                        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
+        if (batchBufferSize != batchSize) {
+            batchImgData = ByteBuffer.allocateDirect(batchSize * imgData.capacity());
+            batchImgData.order(ByteOrder.nativeOrder());
+            batchImgFloats = isModelQuantized ? null : batchImgData.asFloatBuffer();
+            batchOutData = new ByteBuffer[outData.length];
+            batchOutputMap.clear();
+            for (int i = 0; i < outData.length; ++i) {
+                batchOutData[i] = ByteBuffer.allocateDirect(batchSize * outData[i].capacity());
+                batchOutData[i].order(ByteOrder.nativeOrder());
+                batchOutputMap.put(i, batchOutData[i]);
             }
+            batchBufferSize = batchSize;
+        }
+        return true;
+    }
+
+    // The interpreter and the batch buffers must already hold batch.size() images.
+    private List<List<Recognition>> runBatch(final List<Bitmap> batch) {
+        final int batchSize = batch.size();
+        // Fill all images into one input tensor, back to back.
+        batchImgData.rewind();
+        for (final Bitmap bitmap : batch) {
+            putBitmap(bitmap, batchImgData, batchImgFloats);
         }
 
-        Log.d("YoloV5Classifier", "detect end");
-        final ArrayList<Recognition> recognitions = nms(detections);
-//        final ArrayList<Recognition> recognitions = detections;
+        for (final ByteBuffer output : batchOutData) {
+            output.rewind();
+        }
+        tfLite.runForMultipleInputsOutputs(new Object[]{batchImgData}, batchOutputMap);
+
+        // The outputs are laid out image after image as well.
+        final List<List<Recognition>> results = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; ++i) {
+            results.add(decodeOutput(batchOutData, i, batch.get(i).getWidth(), batch.get(i).getHeight()));
+        }
+        return results;
+    }
+
+    /**
+     * Decodes image {@code image} of {@code outputs} and returns the boxes above the threshold
+     * that survive non maximum suppression. Only those are turned into objects.
+     */
+    private ArrayList<Recognition> decodeOutput(ByteBuffer[] outputs, int image, int width, int height) {
+        candidates.clear();
+        long start = beginStage(Stage.DECODE);
+        decoder.decode(outputs, image, INPUT_SIZE, getObjThresh(), candidates);
+        endStage(Stage.DECODE, start);
+        start = beginStage(Stage.NMS);
+        final int count = candidates.nms(mNmsThresh);
+        endStage(Stage.NMS, start);
+
+        final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(count);
+        for (int k = 0; k < count; ++k) {
+            final int i = candidates.kept(k);
+            final int detectedClass = candidates.detectedClass(i);
+            final RectF rect =
+                    new RectF(
+                            Math.max(0, candidates.left(i)),
+                            Math.max(0, candidates.top(i)),
+                            Math.min(width - 1, candidates.right(i)),
+                            Math.min(height - 1, candidates.bottom(i)));
+            final String label = detectedClass < labels.size() ? labels.get(detectedClass) : "" + detectedClass;
+            recognitions.add(new Recognition("" + candidates.index(i), label,
+                    candidates.score(i), rect, detectedClass));
+        }
         return recognitions;
     }
 
+    /**
+     * Non maximum suppression over recognitions collected from several runs, such as overlapping
+     * tiles. Safe to call while this detector runs, since it does not share its buffers.
+     */
+    protected ArrayList<Recognition> nms(List<Recognition> list) {
+        final DetectionCandidates merged = new DetectionCandidates();
+        for (int i = 0; i < list.size(); ++i) {
+            final Recognition recognition = list.get(i);
+            final RectF location = recognition.getLocation();
+            merged.add(location.centerX(), location.centerY(), location.width(), location.height(),
+                    recognition.getConfidence(), recognition.getDetectedClass(), i);
+        }
+        final int count = merged.nms(mNmsThresh);
+        final ArrayList<Recognition> nmsList = new ArrayList<Recognition>(count);
+        for (int k = 0; k < count; ++k) {
+            nmsList.add(list.get(merged.index(merged.kept(k))));
+        }
+        return nmsList;
+    }
+
     public boolean checkInvalidateBox(float x, float y, float width, float height, float oriW, float oriH, int intputSize) {
         // (1) (x, y, w, h) --> (xmin, ymin, xmax, ymax)
         float halfHeight = height / 2.0f;
@@ -496,11 +872,11 @@ public class YoloV5Classifier implements Classifier {
         float temp2 = pred_coor[3] - pred_coor[1];
         float temp = temp1 * temp2;
         if (temp < 0) {
-            Log.e("checkInvalidateBox", "temp < 0");
+            LOGGER.w("checkInvalidateBox: negative box area");
             return false;
         }
         if (Math.sqrt(temp) > Float.MAX_VALUE) {
-            Log.e("checkInvalidateBox", "temp max");
+            LOGGER.w("checkInvalidateBox: box area overflow");
             return false;
         }
 
@@ -1,524 +0,0 @@
-/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
-
-Licensed under the Apache License, Version 2.0 (the "License");
-you may not use this file except in compliance with the License.
-You may obtain a copy of the License at
-
-    http://www.apache.org/licenses/LICENSE-2.0
-
-Unless required by applicable law or agreed to in writing, software
-distributed under the License is distributed on an "AS IS" BASIS,
-WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-See the License for the specific language governing permissions and
-limitations under the License.
-==============================================================================*/
-
-package org.tensorflow.lite.examples.detection.tflite;
-
-import android.content.res.AssetManager;
-import android.graphics.Bitmap;
-import android.graphics.RectF;
-import android.os.Build;
-import android.util.Log;
-
-import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.Tensor;
-import org.tensorflow.lite.examples.detection.MainActivity;
-import org.tensorflow.lite.examples.detection.env.Logger;
-import org.tensorflow.lite.examples.detection.env.Utils;
-import org.tensorflow.lite.gpu.GpuDelegate;
-import org.tensorflow.lite.nnapi.NnApiDelegate;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Vector;
-
-import static org.tensorflow.lite.examples.detection.env.Utils.expit;
-
-
-/**
- * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
- * - https://github.com/tensorflow/models/tree/master/research/object_detection
- * where you can find the training code.
- * <p>
- * To use pretrained models in the API or convert to TF Lite models, please see docs for details:
- * - https://github.com/tensorflow/models/blob/master/research/object_detection/g3doc/detection_model_zoo.md
- * - https://github.com/tensorflow/models/blob/master/research/object_detection/g3doc/running_on_mobile_tensorflowlite.md#running-our-model-on-android
- */
-public class YoloV5ClassifierDetect implements Classifier {
-
-    /**
-     * Initializes a native TensorFlow session for classifying images.
-     *
-     * @param assetManager  The asset manager to be used to load assets.
-     * @param modelFilename The filepath of the model GraphDef protocol buffer.
-     * @param labelFilename The filepath of label file for classes.
-     * @param isQuantized   Boolean representing model is quantized or not
-     */
-    public static YoloV5ClassifierDetect create(
-            final AssetManager assetManager,
-            final String modelFilename,
-            final String labelFilename,
-            final boolean isQuantized,
-            final int inputSize,
-            final int[] output_width,
-            final int[][] masks,
-            final int[] anchors)
-            throws IOException {
-        final YoloV5ClassifierDetect d = new YoloV5ClassifierDetect();
-
-        String actualFilename = labelFilename.split("file:///android_asset/")[1];
-        InputStream labelsInput = assetManager.open(actualFilename);
-        BufferedReader br = new BufferedReader(new InputStreamReader(labelsInput));
-        String line;
-        while ((line = br.readLine()) != null) {
-            LOGGER.w(line);
-            d.labels.add(line);
-        }
-        br.close();
-
-        try {
-            Interpreter.Options options = (new Interpreter.Options());
-            options.setNumThreads(NUM_THREADS);
-            if (isNNAPI) {
-                d.nnapiDelegate = null;
-                // Initialize interpreter with NNAPI delegate for Android Pie or above
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                    d.nnapiDelegate = new NnApiDelegate();
-                    options.addDelegate(d.nnapiDelegate);
-                    options.setNumThreads(NUM_THREADS);
-//                    options.setUseNNAPI(false);
-//                    options.setAllowFp16PrecisionForFp32(true);
-//                    options.setAllowBufferHandleOutput(true);
-                    options.setUseNNAPI(true);
-                }
-            }
-            if (isGPU) {
-                GpuDelegate.Options gpu_options = new GpuDelegate.Options();
-                gpu_options.setPrecisionLossAllowed(true); // It seems that the default is true
-                gpu_options.setInferencePreference(GpuDelegate.Options.INFERENCE_PREFERENCE_SUSTAINED_SPEED);
-                d.gpuDelegate = new GpuDelegate(gpu_options);
-                options.addDelegate(d.gpuDelegate);
-            }
-            d.tfliteModel = Utils.loadModelFile(assetManager, modelFilename);
-            d.tfLite = new Interpreter(d.tfliteModel, options);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-
-        d.isModelQuantized = isQuantized;
-        // Pre-allocate buffers.
-        int numBytesPerChannel;
-        if (isQuantized) {
-            numBytesPerChannel = 1; // Quantized
-        } else {
-            numBytesPerChannel = 4; // Floating point
-        }
-        d.INPUT_SIZE = inputSize;
-        d.OUTPUT_WIDTH = output_width;
-        d.imgData = ByteBuffer.allocateDirect(1 * d.INPUT_SIZE * d.INPUT_SIZE * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.outData = new ByteBuffer[masks.length];
-
-        int[] shape = d.tfLite.getOutputTensor(0).shape();
-        int numClass = shape[shape.length - 1] - 5;
-        for (int i = 0; i < masks.length; ++i){
-            d.outData[i] = ByteBuffer.allocateDirect(1 * d.OUTPUT_WIDTH[i] * d.OUTPUT_WIDTH[i] *
-                    masks[i].length * (5 + numClass) * numBytesPerChannel);
-            d.outData[i].order(ByteOrder.nativeOrder());
-        }
-
-        d.intValues = new int[d.INPUT_SIZE * d.INPUT_SIZE];
-        if (d.isModelQuantized){
-            Tensor inpten = d.tfLite.getInputTensor(0);
-            d.inp_scale = inpten.quantizationParams().getScale();
-            d.inp_zero_point = inpten.quantizationParams().getZeroPoint();
-
-            d.oup_scales = new float[masks.length];
-            d.oup_zero_points = new int[masks.length];
-
-            for (int i = 0; i < masks.length; ++i) {
-                Tensor oupten = d.tfLite.getOutputTensor(i);
-                d.oup_scales[i] = oupten.quantizationParams().getScale();
-                d.oup_zero_points[i] = oupten.quantizationParams().getZeroPoint();
-            }
-        }
-        d.MASKS = masks;
-        d.ANCHORS = anchors;
-        return d;
-    }
-
-    public int getInputSize() {
-        return INPUT_SIZE;
-    }
-    @Override
-    public void enableStatLogging(final boolean logStats) {
-    }
-
-    @Override
-    public String getStatString() {
-        return "";
-    }
-
-    @Override
-    public void close() {
-        tfLite.close();
-        tfLite = null;
-        if (gpuDelegate != null) {
-            gpuDelegate.close();
-            gpuDelegate = null;
-        }
-        if (nnapiDelegate != null) {
-            nnapiDelegate.close();
-            nnapiDelegate = null;
-        }
-        tfliteModel = null;
-    }
-
-    public void setNumThreads(int num_threads) {
-        if (tfLite != null) tfLite.setNumThreads(num_threads);
-    }
-
-    @Override
-    public void setUseNNAPI(boolean isChecked) {
-//        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
-    }
-
-    private void recreateInterpreter() {
-        if (tfLite != null) {
-            tfLite.close();
-            tfLite = new Interpreter(tfliteModel, tfliteOptions);
-        }
-    }
-
-    public void useGpu() {
-        if (gpuDelegate == null) {
-            gpuDelegate = new GpuDelegate();
-            tfliteOptions.addDelegate(gpuDelegate);
-            recreateInterpreter();
-        }
-    }
-
-    public void useCPU() {
-        recreateInterpreter();
-    }
-
-    public void useNNAPI() {
-        nnapiDelegate = new NnApiDelegate();
-        tfliteOptions.addDelegate(nnapiDelegate);
-        recreateInterpreter();
-    }
-
-    @Override
-    public float getObjThresh() {
-        return MainActivity.MINIMUM_CONFIDENCE_TF_OD_API;
-    }
-
-    private static final Logger LOGGER = new Logger();
-
-    // Float model
-    private final float IMAGE_MEAN = 0;
-
-    private final float IMAGE_STD = 255.0f;
-
-    //config yolo
-    private int INPUT_SIZE = -1;
-
-    private int[] OUTPUT_WIDTH;
-    private int[][] MASKS;
-    private int[] ANCHORS;
-
-    private static final float[] XYSCALE = new float[]{1.2f, 1.1f, 1.05f};
-
-    private static final int NUM_BOXES_PER_BLOCK = 3;
-
-    // Number of threads in the java app
-    private static final int NUM_THREADS = 1;
-    private static boolean isNNAPI = false;
-    private static boolean isGPU = false;
-
-    private boolean isModelQuantized;
-
-    /** holds a gpu delegate */
-    GpuDelegate gpuDelegate = null;
-    /** holds an nnapi delegate */
-    NnApiDelegate nnapiDelegate = null;
-
-    /** The loaded TensorFlow Lite model. */
-    private MappedByteBuffer tfliteModel;
-
-    /** Options for configuring the Interpreter. */
-    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
-
-    // Config values.
-
-    // Pre-allocated buffers.
-    private Vector<String> labels = new Vector<String>();
-    private int[] intValues;
-
-    private ByteBuffer imgData;
-    private ByteBuffer[] outData;
-    private Interpreter tfLite;
-
-    private float inp_scale;
-    private int inp_zero_point;
-    private float[] oup_scales;
-    private int[] oup_zero_points;
-    private YoloV5ClassifierDetect() {
-    }
-
-    //non maximum suppression
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
-
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
-        }
-        return nmsList;
-    }
-
-    protected float mNmsThresh = 0.6f;
-
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
-    }
-
-    protected float box_intersection(RectF a, RectF b) {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-        return area;
-    }
-
-    protected float box_union(RectF a, RectF b) {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-        return u;
-    }
-
-    protected float overlap(float x1, float w1, float x2, float w2) {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
-    }
-
-    protected static final int BATCH_SIZE = 1;
-    protected static final int PIXEL_SIZE = 3;
-
-    public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
-        Map<Integer, Object> outputMap = new HashMap<>();
-
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        }
-
-        for (int i = 0; i < OUTPUT_WIDTH.length; i++) {
-            outData[i].rewind();
-            outputMap.put(i, outData[i]);
-        }
-
-        Log.d("YoloV5Classifier", "mObjThresh: " + getObjThresh());
-
-        Object[] inputArray = {imgData};
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-
-        for (int i = 0; i < OUTPUT_WIDTH.length; i++) {
-            int gridWidth = OUTPUT_WIDTH[i];
-            ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(i);
-            byteBuffer.rewind();
-            float[][][][] out = new float[1][NUM_BOXES_PER_BLOCK][gridWidth * gridWidth][5 + labels.size()];
-            if (isModelQuantized) {
-                for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                    for (int y = 0; y < gridWidth; ++y) {
-                        for (int x = 0; x < gridWidth; ++x) {
-                            for (int c = 0; c < 5 + labels.size(); ++c) {
-                                out[0][b][y * gridWidth + x][c] =
-                                        oup_scales[i] * (((int) byteBuffer.get() & 0xFF) - oup_zero_points[i]);
-                            }
-                        }
-                    }
-                }
-            }
-            else {
-                for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                    for (int y = 0; y < gridWidth; ++y) {
-                        for (int x = 0; x < gridWidth; ++x) {
-                            for (int c = 0; c < 5 + labels.size(); ++c) {
-                                out[0][b][y * gridWidth + x][c] = byteBuffer.getFloat();
-                            }
-                        }
-                    }
-                }
-            }
-            Log.d("YoloV5Classifier", "out[" + i + "] detect start");
-            for (int y = 0; y < gridWidth; ++y) {
-                for (int x = 0; x < gridWidth; ++x) {
-                    for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-                        final int offset =
-                                (gridWidth * (NUM_BOXES_PER_BLOCK * (labels.size() + 5))) * y
-                                        + (NUM_BOXES_PER_BLOCK * (labels.size() + 5)) * x
-                                        + (labels.size() + 5) * b;
-
-                        final float confidence = expit(out[0][b][y * gridWidth + x][4]);
-                        int detectedClass = -1;
-                        float maxClass = 0;
-
-                        final float[] classes = new float[labels.size()];
-                        for (int c = 0; c < labels.size(); ++c) {
-                            classes[c] = expit(out[0][b][y * gridWidth + x][5 + c]);
-                        }
-
-                        for (int c = 0; c < labels.size(); ++c) {
-                            if (classes[c] > maxClass) {
-                                detectedClass = c;
-                                maxClass = classes[c];
-                            }
-                        }
-
-                        final float confidenceInClass = maxClass * confidence;
-                        if (confidenceInClass > getObjThresh()) {
-                            final float xPos = (x + expit(out[0][b][y * gridWidth + x][0]) * 2.f - 0.5f) * (1.0f * INPUT_SIZE / gridWidth);
-                            final float yPos = (y + expit(out[0][b][y * gridWidth + x][1]) * 2.f - 0.5f) * (1.0f * INPUT_SIZE / gridWidth);
-
-                            final float w = (float) (Math.pow(expit(out[0][b][y * gridWidth + x][2]) * 2, 2) * ANCHORS[2 * MASKS[i][b]]);
-                            final float h = (float) (Math.pow(expit(out[0][b][y * gridWidth + x][3]) * 2, 2) * ANCHORS[2 * MASKS[i][b] + 1]);
-
-                            final RectF rect =
-                                    new RectF(
-                                            Math.max(0, xPos - w / 2),
-                                            Math.max(0, yPos - h / 2),
-                                            Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                            Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                            detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                                    confidenceInClass, rect, detectedClass));
-                        }
-                    }
-                }
-            }
-            Log.d("YoloV5Classifier", "out[" + i + "] detect end");
-        }
-
-        final ArrayList<Recognition> recognitions = nms(detections);
-
-        return recognitions;
-    }
-
-    public boolean checkInvalidateBox(float x, float y, float width, float height, float oriW, float oriH, int intputSize) {
-        // (1) (x, y, w, h) --> (xmin, ymin, xmax, ymax)
-        float halfHeight = height / 2.0f;
-        float halfWidth = width / 2.0f;
-
-        float[] pred_coor = new float[]{x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight};
-
-        // (2) (xmin, ymin, xmax, ymax) -> (xmin_org, ymin_org, xmax_org, ymax_org)
-        float resize_ratioW = 1.0f * intputSize / oriW;
-        float resize_ratioH = 1.0f * intputSize / oriH;
-
-        float resize_ratio = resize_ratioW > resize_ratioH ? resize_ratioH : resize_ratioW; //min
-
-        float dw = (intputSize - resize_ratio * oriW) / 2;
-        float dh = (intputSize - resize_ratio * oriH) / 2;
-
-        pred_coor[0] = 1.0f * (pred_coor[0] - dw) / resize_ratio;
-        pred_coor[2] = 1.0f * (pred_coor[2] - dw) / resize_ratio;
-
-        pred_coor[1] = 1.0f * (pred_coor[1] - dh) / resize_ratio;
-        pred_coor[3] = 1.0f * (pred_coor[3] - dh) / resize_ratio;
-
-        // (3) clip some boxes those are out of range
-        pred_coor[0] = pred_coor[0] > 0 ? pred_coor[0] : 0;
-        pred_coor[1] = pred_coor[1] > 0 ? pred_coor[1] : 0;
-
-        pred_coor[2] = pred_coor[2] < (oriW - 1) ? pred_coor[2] : (oriW - 1);
-        pred_coor[3] = pred_coor[3] < (oriH - 1) ? pred_coor[3] : (oriH - 1);
-
-        if ((pred_coor[0] > pred_coor[2]) || (pred_coor[1] > pred_coor[3])) {
-            pred_coor[0] = 0;
-            pred_coor[1] = 0;
-            pred_coor[2] = 0;
-            pred_coor[3] = 0;
-        }
-
-        // (4) discard some invalid boxes
-        float temp1 = pred_coor[2] - pred_coor[0];
-        float temp2 = pred_coor[3] - pred_coor[1];
-        float temp = temp1 * temp2;
-        if (temp < 0) {
-            Log.e("checkInvalidateBox", "temp < 0");
-            return false;
-        }
-        if (Math.sqrt(temp) > Float.MAX_VALUE) {
-            Log.e("checkInvalidateBox", "temp max");
-            return false;
-        }
-
-        return true;
-    }
-}
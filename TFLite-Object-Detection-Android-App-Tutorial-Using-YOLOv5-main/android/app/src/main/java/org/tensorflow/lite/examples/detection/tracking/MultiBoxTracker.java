@@ -24,18 +24,28 @@ import android.graphics.Paint.Cap;
 import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Pair;
 import android.util.TypedValue;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import org.tensorflow.lite.examples.detection.env.BorderedText;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics;
+import org.tensorflow.lite.examples.detection.env.PipelineMetrics.Stage;
 import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
 
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
+/**
+ * A tracker that handles non-max suppression and matches existing objects to new detections.
+ *
+ * <p>{@link #draw} runs on the UI thread for every invalidate, so it allocates nothing: the
+ * frame-to-canvas matrix is rebuilt only when the canvas or frame configuration changes, and the
+ * tracked objects, their labels and the paints are reused from frame to frame.
+ */
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 18;
   private static final float MIN_SIZE = 16.0f;
@@ -56,17 +66,29 @@ public class MultiBoxTracker {
           Color.parseColor("#AA33AA"),
           Color.parseColor("#0D0068")
   };
-  final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
+  // Detections in canvas coordinates with their confidence as text, for drawDebug.
+  final List<Pair<String, RectF>> screenRects = new ArrayList<Pair<String, RectF>>();
   private final Logger logger = new Logger();
   private final Queue<Integer> availableColors = new LinkedList<Integer>();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
+  // The first trackedCount entries are the current objects; the rest are kept for reuse.
+  private final List<TrackedRecognition> trackedObjects = new ArrayList<TrackedRecognition>();
+  private int trackedCount;
   private final Paint boxPaint = new Paint();
+  private final Paint debugTextPaint = new Paint();
+  private final Paint debugBoxPaint = new Paint();
+  private final RectF trackedPos = new RectF();
   private final float textSizePx;
   private final BorderedText borderedText;
-  private Matrix frameToCanvasMatrix;
+  private final Matrix frameToCanvasMatrix = new Matrix();
+  // Canvas size frameToCanvasMatrix was built for; -1 until the first draw or after a new frame
+  // configuration.
+  private int matrixCanvasWidth = -1;
+  private int matrixCanvasHeight = -1;
   private int frameWidth;
   private int frameHeight;
   private int sensorOrientation;
+  // Capture time of the results not drawn yet, or 0.
+  private long pendingCaptureTimeNs;
 
   public MultiBoxTracker(final Context context) {
     for (final int color : COLORS) {
@@ -81,6 +103,12 @@ public class MultiBoxTracker {
     boxPaint.setStrokeJoin(Join.ROUND); // 끝 부분 둥글게 처리
     boxPaint.setStrokeMiter(100);
 
+    debugTextPaint.setColor(Color.WHITE);
+    debugTextPaint.setTextSize(60.0f);
+    debugBoxPaint.setColor(Color.RED);
+    debugBoxPaint.setAlpha(200);
+    debugBoxPaint.setStyle(Style.STROKE);
+
     // 디바이스에 맞는 텍스트 사이즈 반환.
     textSizePx =
             TypedValue.applyDimension(
@@ -93,124 +121,128 @@ public class MultiBoxTracker {
     frameWidth = width;
     frameHeight = height;
     this.sensorOrientation = sensorOrientation;
+    matrixCanvasWidth = -1;
   }
 
   public synchronized void drawDebug(final Canvas canvas) {
-    final Paint textPaint = new Paint();
-    textPaint.setColor(Color.WHITE);
-    textPaint.setTextSize(60.0f);
-
-    final Paint boxPaint = new Paint();
-    boxPaint.setColor(Color.RED);
-    boxPaint.setAlpha(200);
-    boxPaint.setStyle(Style.STROKE);
-
-    for (final Pair<Float, RectF> detection : screenRects) {
+    for (int i = 0; i < screenRects.size(); ++i) {
+      final Pair<String, RectF> detection = screenRects.get(i);
       final RectF rect = detection.second;
-      canvas.drawRect(rect, boxPaint);
-      canvas.drawText("" + detection.first, rect.left, rect.top, textPaint);
-      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + detection.first);
+      canvas.drawRect(rect, debugBoxPaint);
+      canvas.drawText(detection.first, rect.left, rect.top, debugTextPaint);
+      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), detection.first);
     }
   }
 
-  public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
+  /**
+   * @param timestamp frame number
+   * @param captureTimeNs when the frame was captured, in {@link SystemClock#elapsedRealtimeNanos}
+   *     time; the camera-to-screen latency is recorded when these results are first drawn
+   */
+  public synchronized void trackResults(
+          final List<Recognition> results, final long timestamp, final long captureTimeNs) {
     logger.i("Processing %d results from %d", results.size(), timestamp);
     processResults(results);
+    pendingCaptureTimeNs = captureTimeNs;
   }
 
-  private Matrix getFrameToCanvasMatrix() {
-    return frameToCanvasMatrix;
+  public synchronized void draw(final Canvas canvas) {
+    if (pendingCaptureTimeNs != 0) {
+      PipelineMetrics.get().record(
+              Stage.END_TO_END, SystemClock.elapsedRealtimeNanos() - pendingCaptureTimeNs);
+      pendingCaptureTimeNs = 0;
+    }
+    if (canvas.getWidth() != matrixCanvasWidth || canvas.getHeight() != matrixCanvasHeight) {
+      updateFrameToCanvasMatrix(canvas.getWidth(), canvas.getHeight());
+    }
+
+    for (int i = 0; i < trackedCount; ++i) {
+      final TrackedRecognition recognition = trackedObjects.get(i);
+      frameToCanvasMatrix.mapRect(trackedPos, recognition.location);
+      boxPaint.setColor(recognition.color);
+
+      float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
+      canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
+
+      borderedText.drawText(
+              canvas, trackedPos.left + cornerSize, trackedPos.top, recognition.label, boxPaint);
+    }
   }
 
-  public synchronized void draw(final Canvas canvas) {
+  private void updateFrameToCanvasMatrix(final int canvasWidth, final int canvasHeight) {
     final boolean rotated = sensorOrientation % 180 == 90;
     final float multiplier =
             Math.min(
-                    canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
-                    canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
+                    canvasHeight / (float) (rotated ? frameWidth : frameHeight),
+                    canvasWidth / (float) (rotated ? frameHeight : frameWidth));
 
-    frameToCanvasMatrix =
+    frameToCanvasMatrix.set(
             ImageUtils.getTransformationMatrix(
                     frameWidth,
                     frameHeight,
                     (int) (multiplier * (rotated ? frameHeight : frameWidth)),
                     (int) (multiplier * (rotated ? frameWidth : frameHeight)),
                     sensorOrientation,
-                    false);
-
-    for (final TrackedRecognition recognition : trackedObjects) {
-      final RectF trackedPos = new RectF(recognition.location);
-
-      getFrameToCanvasMatrix().mapRect(trackedPos);
-      boxPaint.setColor(recognition.color);
-
-      float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
-      canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
-
-      final String labelString =
-              !TextUtils.isEmpty(recognition.title)
-                      ? String.format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-                      : String.format("%.2f", (100 * recognition.detectionConfidence));
-      //            borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.top,
-      // labelString);
-      borderedText.drawText(
-              canvas, trackedPos.left + cornerSize, trackedPos.top, labelString + "%", boxPaint);
-    }
+                    false));
+    matrixCanvasWidth = canvasWidth;
+    matrixCanvasHeight = canvasHeight;
   }
 
+  // Runs once per processed frame, on the inference thread.
   private void processResults(final List<Recognition> results) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
-
     screenRects.clear();
-    final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
+    trackedCount = 0;
 
     for (final Recognition result : results) {
-      if (result.getLocation() == null) {
+      final RectF detectionFrameRect = result.getLocation();
+      if (detectionFrameRect == null) {
         continue;
       }
-      final RectF detectionFrameRect = new RectF(result.getLocation());
 
       final RectF detectionScreenRect = new RectF();
-      rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
+      frameToCanvasMatrix.mapRect(detectionScreenRect, detectionFrameRect);
 
-      logger.v(
-              "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
+      logger.v("Result! Frame: %s mapped to screen: %s", detectionFrameRect, detectionScreenRect);
 
-      screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
+      screenRects.add(new Pair<String, RectF>(Float.toString(result.getConfidence()), detectionScreenRect));
 
       if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE) {
-        logger.w("Degenerate rectangle! " + detectionFrameRect);
+        logger.w("Degenerate rectangle! %s", detectionFrameRect);
         continue;
       }
 
-      rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
+      if (trackedCount == trackedObjects.size()) {
+        trackedObjects.add(new TrackedRecognition());
+      }
+      final TrackedRecognition trackedRecognition = trackedObjects.get(trackedCount++);
+      trackedRecognition.detectionConfidence = result.getConfidence();
+      trackedRecognition.location.set(detectionFrameRect);
+      trackedRecognition.color = COLORS[result.getDetectedClass() % COLORS.length];
+      trackedRecognition.setTitle(result.getTitle());
     }
 
-    trackedObjects.clear();
-    if (rectsToTrack.isEmpty()) {
+    if (trackedCount == 0) {
       logger.v("Nothing to track, aborting.");
-      return;
-    }
-
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
-//      trackedRecognition.color = COLORS[trackedObjects.size() % COLORS.length];
-      trackedRecognition.color = COLORS[potential.second.getDetectedClass() % COLORS.length];
-      trackedObjects.add(trackedRecognition);
-
-//      if (trackedObjects.size() >= COLORS.length) {
-//        break;
-//      }
     }
   }
 
   private static class TrackedRecognition {
-    RectF location;
+    final RectF location = new RectF();
     float detectionConfidence;
     int color;
     String title;
+    // "<title> <confidence>%", rebuilt only when the title or the whole percent changes.
+    String label;
+    int labelPercent = -1;
+
+    void setTitle(final String title) {
+      final int percent = Math.round(100 * detectionConfidence);
+      if (label != null && percent == labelPercent && TextUtils.equals(title, this.title)) {
+        return;
+      }
+      this.title = title;
+      labelPercent = percent;
+      label = !TextUtils.isEmpty(title) ? title + " " + percent + "%" : percent + "%";
+    }
   }
 }
@@ -0,0 +1,82 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files and exits with status 1 when a benchmark got slower than
+ * the baseline by more than the threshold, beyond the error of both runs.
+ *
+ * <p>Usage: {@code BenchmarkComparison <baseline.json> <results.json> [threshold percent]}. All
+ * benchmarks here report average time, so lower is better.
+ */
+public final class BenchmarkComparison {
+    private static final double DEFAULT_THRESHOLD_PERCENT = 5;
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkComparison <baseline.json> <results.json> [threshold percent]");
+            System.exit(2);
+        }
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        final Map<String, double[]> baseline = read(args[0]);
+        final Map<String, double[]> results = read(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-70s %12s %12s %8s%n", "benchmark", "baseline", "current", "change");
+        for (final Map.Entry<String, double[]> entry : new TreeMap<>(results).entrySet()) {
+            final double[] current = entry.getValue();
+            final double[] before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %12s %12.3f %8s%n", entry.getKey(), "-", current[0], "new");
+                continue;
+            }
+            final double change = 100 * (current[0] - before[0]) / before[0];
+            // Only count it when the difference is larger than both error margins together.
+            final boolean regressed = change > threshold && current[0] - before[0] > current[1] + before[1];
+            if (regressed) {
+                ++regressions;
+            }
+            System.out.printf("%-70s %12.3f %12.3f %+7.1f%%%s%n",
+                    entry.getKey(), before[0], current[0], change, regressed ? "  REGRESSION" : "");
+        }
+        if (regressions > 0) {
+            System.out.printf("%d benchmarks regressed by more than %.1f%%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    // Benchmark name with its parameters, to score and error.
+    private static Map<String, double[]> read(final String file) throws IOException {
+        final Map<String, double[]> scores = new LinkedHashMap<>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+            final JsonArray runs = new JsonParser().parse(reader).getAsJsonArray();
+            for (final JsonElement element : runs) {
+                final JsonObject run = element.getAsJsonObject();
+                final StringBuilder name = new StringBuilder(run.get("benchmark").getAsString()
+                        .replace("org.tensorflow.lite.examples.detection.core.", ""));
+                if (run.has("params")) {
+                    for (final Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                        name.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                    }
+                }
+                final JsonObject metric = run.getAsJsonObject("primaryMetric");
+                final double error = metric.get("scoreError").isJsonPrimitive()
+                        && metric.get("scoreError").getAsJsonPrimitive().isNumber()
+                        ? metric.get("scoreError").getAsDouble() : 0;
+                scores.put(name.toString(), new double[]{metric.get("score").getAsDouble(), error});
+            }
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,57 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output decoding of one frame, cycling through the frames of a recording (see
+ * {@link Recordings}). NMS is measured separately in {@link NmsBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+    private static final float THRESHOLD = 0.3f;
+
+    @Param({OutputDecoder.LAYOUT_FLAT, OutputDecoder.LAYOUT_GRID})
+    public String layout;
+
+    private OutputRecording recording;
+    private OutputDecoder decoder;
+    private final DetectionCandidates candidates = new DetectionCandidates();
+    private int frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        recording = Recordings.load(layout);
+        decoder = recording.createDecoder();
+    }
+
+    private ByteBuffer[] nextFrame() {
+        frame = (frame + 1) % recording.getFrameCount();
+        return recording.getFrame(frame);
+    }
+
+    @Benchmark
+    public int decode() {
+        candidates.clear();
+        decoder.decode(nextFrame(), 0, recording.getInputSize(), THRESHOLD, candidates);
+        return candidates.size();
+    }
+
+    /** The cascade gate's path: highest objectness only. */
+    @Benchmark
+    public float maxScore() {
+        return decoder.maxScore(nextFrame());
+    }
+}
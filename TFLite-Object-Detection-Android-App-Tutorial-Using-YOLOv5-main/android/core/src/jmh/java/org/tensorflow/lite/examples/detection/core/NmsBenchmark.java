@@ -0,0 +1,118 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non maximum suppression at candidate counts seen after thresholding: a few dozen on a typical
+ * frame, up to about a thousand with a low threshold on a busy scene. Candidates come in clusters
+ * of overlapping boxes around each object, as a detector produces them.
+ *
+ * <p>{@link #priorityQueue} is the object-based per-class NMS the detector used before
+ * {@link DetectionCandidates}, kept here as the reference point.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class NmsBenchmark {
+    private static final float IOU_THRESHOLD = 0.6f;
+    private static final int BOXES_PER_OBJECT = 8;
+
+    @Param({"16", "64", "256", "1024"})
+    public int count;
+
+    @Param({"1", "10"})
+    public int numClasses;
+
+    private final DetectionCandidates candidates = new DetectionCandidates();
+    private final List<Box> boxes = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        candidates.clear();
+        boxes.clear();
+        float x = 0;
+        float y = 0;
+        float size = 0;
+        int detectedClass = 0;
+        for (int i = 0; i < count; ++i) {
+            if (i % BOXES_PER_OBJECT == 0) {
+                x = 640 * random.nextFloat();
+                y = 640 * random.nextFloat();
+                size = 20 + 200 * random.nextFloat();
+                detectedClass = random.nextInt(numClasses);
+            }
+            final float cx = x + 0.05f * size * (float) random.nextGaussian();
+            final float cy = y + 0.05f * size * (float) random.nextGaussian();
+            final float w = size * (1 + 0.1f * (float) random.nextGaussian());
+            final float h = size * (1 + 0.1f * (float) random.nextGaussian());
+            final float score = 0.3f + 0.7f * random.nextFloat();
+            candidates.add(cx, cy, w, h, score, detectedClass, i);
+            boxes.add(new Box(cx - w / 2, cy - h / 2, cx + w / 2, cy + h / 2, score, detectedClass));
+        }
+    }
+
+    @Benchmark
+    public int greedyPerClass() {
+        return candidates.nms(IOU_THRESHOLD);
+    }
+
+    @Benchmark
+    public int priorityQueue() {
+        final List<Box> kept = new ArrayList<>();
+        for (int k = 0; k < numClasses; ++k) {
+            final PriorityQueue<Box> queue = new PriorityQueue<>(50, (lhs, rhs) -> Float.compare(rhs.score, lhs.score));
+            for (final Box box : boxes) {
+                if (box.detectedClass == k) {
+                    queue.add(box);
+                }
+            }
+            while (queue.size() > 0) {
+                final Box[] detections = queue.toArray(new Box[0]);
+                final Box max = detections[0];
+                kept.add(max);
+                queue.clear();
+                for (int j = 1; j < detections.length; ++j) {
+                    final Box detection = detections[j];
+                    if (Boxes.iou(max.left, max.top, max.right, max.bottom,
+                            detection.left, detection.top, detection.right, detection.bottom) < IOU_THRESHOLD) {
+                        queue.add(detection);
+                    }
+                }
+            }
+        }
+        return kept.size();
+    }
+
+    private static final class Box {
+        final float left;
+        final float top;
+        final float right;
+        final float bottom;
+        final float score;
+        final int detectedClass;
+
+        Box(final float left, final float top, final float right, final float bottom, final float score,
+            final int detectedClass) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.score = score;
+            this.detectedClass = detectedClass;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Model outputs for the decoding benchmarks.
+ *
+ * <p>Recordings captured on a device are read from the directory in the {@code recordings} system
+ * property, as {@code <layout>.ytr}. Without one, a synthetic recording with the shapes of a
+ * 416px YOLOv5s export is generated from a fixed seed: a few objects, each with a cluster of
+ * overlapping boxes above the threshold, on a background of low scores. Results of the two are
+ * not comparable, so the benchmarks report which one they used.
+ */
+final class Recordings {
+    static final int INPUT_SIZE = 416;
+    static final int NUM_CLASSES = 80;
+    static final int[] GRIDS = {52, 26, 13};
+    static final int ANCHORS_PER_CELL = 3;
+
+    private static final int FRAMES = 8;
+    private static final int OBJECTS_PER_FRAME = 6;
+    private static final int BOXES_PER_OBJECT = 20;
+
+    private Recordings() {
+    }
+
+    static OutputRecording load(final String layout) throws IOException {
+        final String directory = System.getProperty("recordings");
+        if (directory != null && !directory.isEmpty()) {
+            final File file = new File(directory, layout + ".ytr");
+            if (file.isFile()) {
+                System.out.println("Using recorded outputs " + file);
+                return OutputRecording.read(file);
+            }
+            System.out.println("No " + file + ", using synthetic outputs");
+        }
+        if (layout.equals(OutputDecoder.LAYOUT_FLAT)) {
+            return syntheticFlat();
+        }
+        if (layout.equals(OutputDecoder.LAYOUT_GRID)) {
+            return syntheticGrid();
+        }
+        throw new IllegalArgumentException("No synthetic outputs for " + layout);
+    }
+
+    private static int boxCount() {
+        int boxes = 0;
+        for (final int g : GRIDS) {
+            boxes += g * g * ANCHORS_PER_CELL;
+        }
+        return boxes;
+    }
+
+    // [1, N, 85]: xywh relative to the input, objectness, class scores.
+    private static OutputRecording syntheticFlat() {
+        final int boxes = boxCount();
+        final int stride = 5 + NUM_CLASSES;
+        final TensorSpec spec = TensorSpec.ofFloat(1, boxes, stride);
+        final Random random = new Random(42);
+        final List<ByteBuffer[]> frames = new ArrayList<>();
+        for (int f = 0; f < FRAMES; ++f) {
+            final ByteBuffer buffer = allocate(spec.numBytes);
+            for (int i = 0; i < boxes; ++i) {
+                final int row = i * stride * 4;
+                buffer.putFloat(row, random.nextFloat());
+                buffer.putFloat(row + 4, random.nextFloat());
+                buffer.putFloat(row + 8, random.nextFloat() * 0.2f);
+                buffer.putFloat(row + 12, random.nextFloat() * 0.2f);
+                buffer.putFloat(row + 16, random.nextFloat() * 0.05f);
+                for (int c = 0; c < NUM_CLASSES; ++c) {
+                    buffer.putFloat(row + (5 + c) * 4, random.nextFloat() * 0.1f);
+                }
+            }
+            for (int o = 0; o < OBJECTS_PER_FRAME; ++o) {
+                final float x = 0.1f + 0.8f * random.nextFloat();
+                final float y = 0.1f + 0.8f * random.nextFloat();
+                final float w = 0.05f + 0.3f * random.nextFloat();
+                final float h = 0.05f + 0.3f * random.nextFloat();
+                final int detectedClass = random.nextInt(NUM_CLASSES);
+                final int first = random.nextInt(boxes - BOXES_PER_OBJECT);
+                for (int b = 0; b < BOXES_PER_OBJECT; ++b) {
+                    final int row = (first + b) * stride * 4;
+                    buffer.putFloat(row, x + 0.01f * (float) random.nextGaussian());
+                    buffer.putFloat(row + 4, y + 0.01f * (float) random.nextGaussian());
+                    buffer.putFloat(row + 8, w * (1 + 0.05f * (float) random.nextGaussian()));
+                    buffer.putFloat(row + 12, h * (1 + 0.05f * (float) random.nextGaussian()));
+                    buffer.putFloat(row + 16, 0.5f + 0.5f * random.nextFloat());
+                    buffer.putFloat(row + (5 + detectedClass) * 4, 0.7f + 0.3f * random.nextFloat());
+                }
+            }
+            frames.add(new ByteBuffer[]{buffer});
+        }
+        return new OutputRecording(INPUT_SIZE, OutputDecoder.LAYOUT_FLAT, null, new TensorSpec[]{spec}, frames);
+    }
+
+    // One [1, 3, g, g, 85] logit tensor per grid.
+    private static OutputRecording syntheticGrid() {
+        final int stride = 5 + NUM_CLASSES;
+        final TensorSpec[] specs = new TensorSpec[GRIDS.length];
+        for (int k = 0; k < GRIDS.length; ++k) {
+            specs[k] = TensorSpec.ofFloat(1, ANCHORS_PER_CELL, GRIDS[k], GRIDS[k], stride);
+        }
+        final Random random = new Random(42);
+        final List<ByteBuffer[]> frames = new ArrayList<>();
+        for (int f = 0; f < FRAMES; ++f) {
+            final ByteBuffer[] buffers = new ByteBuffer[GRIDS.length];
+            for (int k = 0; k < GRIDS.length; ++k) {
+                buffers[k] = allocate(specs[k].numBytes);
+                final int rows = specs[k].numBytes / 4 / stride;
+                for (int i = 0; i < rows; ++i) {
+                    final int row = i * stride * 4;
+                    for (int v = 0; v < 4; ++v) {
+                        buffers[k].putFloat(row + v * 4, (float) random.nextGaussian());
+                    }
+                    buffers[k].putFloat(row + 16, -6 + (float) random.nextGaussian());
+                    for (int c = 0; c < NUM_CLASSES; ++c) {
+                        buffers[k].putFloat(row + (5 + c) * 4, -4 + (float) random.nextGaussian());
+                    }
+                }
+            }
+            for (int o = 0; o < OBJECTS_PER_FRAME; ++o) {
+                final int k = random.nextInt(GRIDS.length);
+                final int g = GRIDS[k];
+                final int detectedClass = random.nextInt(NUM_CLASSES);
+                final int cx = 1 + random.nextInt(g - 2);
+                final int cy = 1 + random.nextInt(g - 2);
+                // Neighbouring cells and all anchors of an object fire together.
+                for (int b = 0; b < ANCHORS_PER_CELL; ++b) {
+                    for (int y = cy - 1; y <= cy + 1; ++y) {
+                        for (int x = cx - 1; x <= cx + 1; ++x) {
+                            final int row = ((b * g + y) * g + x) * stride * 4;
+                            buffers[k].putFloat(row + 16, 1 + 2 * random.nextFloat());
+                            buffers[k].putFloat(row + (5 + detectedClass) * 4, 2 + 2 * random.nextFloat());
+                        }
+                    }
+                }
+            }
+            frames.add(buffers);
+        }
+        return new OutputRecording(INPUT_SIZE, OutputDecoder.LAYOUT_GRID, null, specs, frames);
+    }
+
+    private static ByteBuffer allocate(final int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,67 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a frame's detections to the previous frame's tracks by IoU, as the material refiner
+ * does for every frame. The detections are the tracks moved by a few pixels, plus some new ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TrackAssociationBenchmark {
+    private static final float TRACK_IOU = 0.5f;
+
+    @Param({"4", "16", "64"})
+    public int tracks;
+
+    private float[] trackBoxes;
+    private float[] detections;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        trackBoxes = new float[4 * tracks];
+        detections = new float[4 * tracks];
+        for (int i = 0; i < tracks; ++i) {
+            final float x = 640 * random.nextFloat();
+            final float y = 640 * random.nextFloat();
+            final float size = 20 + 150 * random.nextFloat();
+            trackBoxes[4 * i] = x;
+            trackBoxes[4 * i + 1] = y;
+            trackBoxes[4 * i + 2] = x + size;
+            trackBoxes[4 * i + 3] = y + size;
+            // One in four detections is a new object somewhere else.
+            final boolean moved = random.nextInt(4) != 0;
+            final float dx = moved ? 5 * (float) random.nextGaussian() : 640 * random.nextFloat() - x;
+            final float dy = moved ? 5 * (float) random.nextGaussian() : 640 * random.nextFloat() - y;
+            detections[4 * i] = x + dx;
+            detections[4 * i + 1] = y + dy;
+            detections[4 * i + 2] = x + size + dx;
+            detections[4 * i + 3] = y + size + dy;
+        }
+    }
+
+    @Benchmark
+    public int associate() {
+        int matched = 0;
+        for (int i = 0; i < tracks; ++i) {
+            final int j = 4 * i;
+            if (Boxes.bestMatch(trackBoxes, tracks, detections[j], detections[j + 1],
+                    detections[j + 2], detections[j + 3], TRACK_IOU) >= 0) {
+                ++matched;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,60 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Camera frame to ARGB conversion, for the Camera2 (planar) and Camera1 (NV21) paths. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class YuvConversionBenchmark {
+    @Param({"640x480", "1280x720"})
+    public String size;
+
+    private int width;
+    private int height;
+    private byte[] y;
+    private byte[] u;
+    private byte[] v;
+    private byte[] nv21;
+    private int[] argb;
+
+    @Setup
+    public void setUp() {
+        final String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        final Random random = new Random(42);
+        y = new byte[width * height];
+        // Interleaved chroma, as most devices deliver it: pixel stride 2.
+        u = new byte[width * height / 2];
+        v = new byte[width * height / 2];
+        nv21 = new byte[YuvConverter.getYUVByteSize(width, height)];
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+        random.nextBytes(nv21);
+        argb = new int[width * height];
+    }
+
+    @Benchmark
+    public int[] yuv420() {
+        YuvConverter.convertYUV420ToARGB8888(y, u, v, width, height, width, width, 2, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] yuv420sp() {
+        YuvConverter.convertYUV420SPToARGB8888(nv21, width, height, argb);
+        return argb;
+    }
+}
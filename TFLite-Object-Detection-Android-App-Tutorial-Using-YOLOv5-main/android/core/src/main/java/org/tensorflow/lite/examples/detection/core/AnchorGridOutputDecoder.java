@@ -0,0 +1,134 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes {@link OutputDecoder#LAYOUT_GRID} outputs: raw logits per grid cell and anchor, as
+ * produced by a YOLOv5 export without the Detect layer's post-processing.
+ */
+final class AnchorGridOutputDecoder extends OutputDecoder {
+    /** YOLOv5 anchors in input pixels, three (w, h) pairs per grid from the finest to the coarsest. */
+    static final int[] DEFAULT_ANCHORS = new int[]{
+            10,13, 16,30, 33,23, 30,61, 62,45, 59,119, 116,90, 156,198, 373,326
+    };
+
+    private static final int ANCHORS_PER_CELL = 3;
+
+    private final int[] anchors;
+
+    // Per level, from the finest grid to the coarsest.
+    private int[] outputs;
+    private int[] gridSizes;
+    private boolean[] anchorMajor;
+    private int stride;
+
+    AnchorGridOutputDecoder(final int[] anchors) {
+        this.anchors = anchors;
+    }
+
+    @Override
+    protected void onConfigure(final int[][] shapes) {
+        final int count = shapes.length;
+        outputs = new int[count];
+        gridSizes = new int[count];
+        anchorMajor = new boolean[count];
+        for (int i = 0; i < count; ++i) {
+            outputs[i] = i;
+        }
+        // Sort by grid size, descending, so level k uses anchor set k.
+        for (int i = 1; i < count; ++i) {
+            for (int j = i; j > 0 && gridSize(shapes[outputs[j]]) > gridSize(shapes[outputs[j - 1]]); --j) {
+                final int t = outputs[j];
+                outputs[j] = outputs[j - 1];
+                outputs[j - 1] = t;
+            }
+        }
+        for (int k = 0; k < count; ++k) {
+            final int[] shape = shapes[outputs[k]];
+            gridSizes[k] = gridSize(shape);
+            // [1, 3, g, g, 5+C] or [1, g, g, 3*(5+C)].
+            anchorMajor[k] = shape.length == 5;
+            stride = anchorMajor[k] ? shape[4] : shape[3] / ANCHORS_PER_CELL;
+        }
+        if (anchors.length < 2 * ANCHORS_PER_CELL * count) {
+            throw new IllegalArgumentException(
+                    count + " grids need " + 2 * ANCHORS_PER_CELL * count + " anchor values, got " + anchors.length);
+        }
+    }
+
+    private static int gridSize(final int[] shape) {
+        return shape.length == 5 ? shape[2] : shape[1];
+    }
+
+    @Override
+    public int getNumClasses() {
+        return stride - 5;
+    }
+
+    @Override
+    public void decode(final ByteBuffer[] buffers, final int image, final int inputSize, final float threshold,
+                       final DetectionCandidates candidates) {
+        // Compare logits with the threshold's logit, so rejected boxes skip the exponentials.
+        final float logitThreshold = threshold <= 0 ? Float.NEGATIVE_INFINITY
+                : (float) Math.log(threshold / (1 - threshold));
+        final int numClasses = getNumClasses();
+        int index = 0;
+        for (int k = 0; k < outputs.length; ++k) {
+            final int output = outputs[k];
+            final int base = imageBase(output, image);
+            final int g = gridSizes[k];
+            final float cellSize = (float) inputSize / g;
+            for (int y = 0; y < g; ++y) {
+                for (int x = 0; x < g; ++x) {
+                    for (int b = 0; b < ANCHORS_PER_CELL; ++b, ++index) {
+                        final int row = (anchorMajor[k]
+                                ? (b * g + y) * g + x
+                                : (y * g + x) * ANCHORS_PER_CELL + b) * stride;
+                        final float objectnessLogit = value(buffers, output, base, row + 4);
+                        if (objectnessLogit <= logitThreshold) {
+                            continue;
+                        }
+                        int detectedClass = -1;
+                        float maxLogit = Float.NEGATIVE_INFINITY;
+                        for (int c = 0; c < numClasses; ++c) {
+                            final float logit = value(buffers, output, base, row + 5 + c);
+                            if (logit > maxLogit) {
+                                detectedClass = c;
+                                maxLogit = logit;
+                            }
+                        }
+                        final float confidence = expit(objectnessLogit) * expit(maxLogit);
+                        if (detectedClass < 0 || confidence <= threshold) {
+                            continue;
+                        }
+                        final int anchor = 2 * (k * ANCHORS_PER_CELL + b);
+                        final float w = expit(value(buffers, output, base, row + 2)) * 2;
+                        final float h = expit(value(buffers, output, base, row + 3)) * 2;
+                        candidates.add(
+                                (x + expit(value(buffers, output, base, row)) * 2 - 0.5f) * cellSize,
+                                (y + expit(value(buffers, output, base, row + 1)) * 2 - 0.5f) * cellSize,
+                                w * w * anchors[anchor],
+                                h * h * anchors[anchor + 1],
+                                confidence, detectedClass, index);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public float maxScore(final ByteBuffer[] buffers) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int k = 0; k < outputs.length; ++k) {
+            final int cells = gridSizes[k] * gridSizes[k] * ANCHORS_PER_CELL;
+            for (int i = 0; i < cells; ++i) {
+                max = Math.max(max, value(buffers, outputs[k], 0, i * stride + 4));
+            }
+        }
+        return expit(max);
+    }
+
+    private static float expit(final float x) {
+        return (float) (1. / (1. + Math.exp(-x)));
+    }
+}
@@ -0,0 +1,41 @@
+package org.tensorflow.lite.examples.detection.core;
+
+/** Box geometry on plain coordinates, for callers with their own rectangle type. */
+public final class Boxes {
+    private Boxes() {
+    }
+
+    /** Intersection over union of two boxes given by their left, top, right and bottom edges. */
+    public static float iou(final float aLeft, final float aTop, final float aRight, final float aBottom,
+                            final float bLeft, final float bTop, final float bRight, final float bBottom) {
+        final float width = Math.min(aRight, bRight) - Math.max(aLeft, bLeft);
+        final float height = Math.min(aBottom, bBottom) - Math.max(aTop, bTop);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        final float intersection = width * height;
+        final float union = (aRight - aLeft) * (aBottom - aTop)
+                + (bRight - bLeft) * (bBottom - bTop) - intersection;
+        return intersection / union;
+    }
+
+    /**
+     * Returns the box among the first {@code count} of {@code boxes} that overlaps the given box
+     * most, with an IoU of at least {@code minIou}, or -1 if there is none.
+     *
+     * @param boxes left, top, right, bottom of each box, one after the other
+     */
+    public static int bestMatch(final float[] boxes, final int count, final float left, final float top,
+                                final float right, final float bottom, final float minIou) {
+        int best = -1;
+        float bestIou = minIou;
+        for (int i = 0, j = 0; i < count; ++i, j += 4) {
+            final float iou = iou(boxes[j], boxes[j + 1], boxes[j + 2], boxes[j + 3], left, top, right, bottom);
+            if (iou >= bestIou) {
+                best = i;
+                bestIou = iou;
+            }
+        }
+        return best;
+    }
+}
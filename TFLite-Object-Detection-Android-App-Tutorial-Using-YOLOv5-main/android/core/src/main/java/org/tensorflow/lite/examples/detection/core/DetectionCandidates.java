@@ -0,0 +1,143 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.util.Arrays;
+
+/**
+ * Boxes that passed the score threshold, before non maximum suppression.
+ *
+ * <p>Stored in parallel primitive arrays that grow as needed and are reused from frame to frame,
+ * so decoding allocates nothing once the arrays have reached their working size. Only the boxes
+ * that survive {@link #nms} are turned into recognition objects.
+ */
+public final class DetectionCandidates {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private float[] left = new float[INITIAL_CAPACITY];
+    private float[] top = new float[INITIAL_CAPACITY];
+    private float[] right = new float[INITIAL_CAPACITY];
+    private float[] bottom = new float[INITIAL_CAPACITY];
+    private float[] scores = new float[INITIAL_CAPACITY];
+    private int[] classes = new int[INITIAL_CAPACITY];
+    private int[] indices = new int[INITIAL_CAPACITY];
+
+    // NMS work arrays: candidates by descending score, and the survivors.
+    private int[] order = new int[INITIAL_CAPACITY];
+    private boolean[] suppressed = new boolean[INITIAL_CAPACITY];
+    private int[] kept = new int[INITIAL_CAPACITY];
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a box given by its center and size in input pixels.
+     *
+     * @param index position of the box in the model output, used as the recognition id
+     */
+    public void add(final float centerX, final float centerY, final float width, final float height,
+                    final float score, final int detectedClass, final int index) {
+        if (size == scores.length) {
+            grow();
+        }
+        left[size] = centerX - width / 2;
+        top[size] = centerY - height / 2;
+        right[size] = centerX + width / 2;
+        bottom[size] = centerY + height / 2;
+        scores[size] = score;
+        classes[size] = detectedClass;
+        indices[size] = index;
+        ++size;
+    }
+
+    private void grow() {
+        final int capacity = scores.length * 2;
+        left = Arrays.copyOf(left, capacity);
+        top = Arrays.copyOf(top, capacity);
+        right = Arrays.copyOf(right, capacity);
+        bottom = Arrays.copyOf(bottom, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        classes = Arrays.copyOf(classes, capacity);
+        indices = Arrays.copyOf(indices, capacity);
+        order = new int[capacity];
+        suppressed = new boolean[capacity];
+        kept = new int[capacity];
+    }
+
+    /**
+     * Greedy per-class non maximum suppression: a box is dropped when it overlaps a higher scoring
+     * box of the same class by {@code iouThreshold} or more.
+     *
+     * @return the number of surviving boxes, available through {@link #kept} by descending score
+     */
+    public int nms(final float iouThreshold) {
+        // Insertion sort: after thresholding there are rarely more than a few dozen candidates.
+        for (int i = 0; i < size; ++i) {
+            final int candidate = i;
+            int j = i - 1;
+            while (j >= 0 && scores[order[j]] < scores[candidate]) {
+                order[j + 1] = order[j];
+                --j;
+            }
+            order[j + 1] = candidate;
+        }
+
+        Arrays.fill(suppressed, 0, size, false);
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            final int a = order[i];
+            if (suppressed[a]) {
+                continue;
+            }
+            kept[count++] = a;
+            for (int j = i + 1; j < size; ++j) {
+                final int b = order[j];
+                if (!suppressed[b] && classes[b] == classes[a] && iou(a, b) >= iouThreshold) {
+                    suppressed[b] = true;
+                }
+            }
+        }
+        return count;
+    }
+
+    private float iou(final int a, final int b) {
+        return Boxes.iou(left[a], top[a], right[a], bottom[a], left[b], top[b], right[b], bottom[b]);
+    }
+
+    /** Returns the candidate at position {@code k} of the last {@link #nms} result. */
+    public int kept(final int k) {
+        return kept[k];
+    }
+
+    public float left(final int i) {
+        return left[i];
+    }
+
+    public float top(final int i) {
+        return top[i];
+    }
+
+    public float right(final int i) {
+        return right[i];
+    }
+
+    public float bottom(final int i) {
+        return bottom[i];
+    }
+
+    public float score(final int i) {
+        return scores[i];
+    }
+
+    public int detectedClass(final int i) {
+        return classes[i];
+    }
+
+    public int index(final int i) {
+        return indices[i];
+    }
+}
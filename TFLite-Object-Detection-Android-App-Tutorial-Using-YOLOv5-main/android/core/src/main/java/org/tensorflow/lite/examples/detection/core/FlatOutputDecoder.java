@@ -0,0 +1,63 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.nio.ByteBuffer;
+
+/** Decodes {@link OutputDecoder#LAYOUT_FLAT} outputs. */
+final class FlatOutputDecoder extends OutputDecoder {
+    private int numBoxes;
+    private int stride;
+
+    @Override
+    protected void onConfigure(final int[][] shapes) {
+        numBoxes = shapes[0][1];
+        stride = shapes[0][2];
+    }
+
+    @Override
+    public int getNumClasses() {
+        return stride - 5;
+    }
+
+    @Override
+    public void decode(final ByteBuffer[] outputs, final int image, final int inputSize, final float threshold,
+                       final DetectionCandidates candidates) {
+        final int base = imageBase(0, image);
+        final int numClasses = getNumClasses();
+        for (int i = 0; i < numBoxes; ++i) {
+            final int row = i * stride;
+            // Class scores are at most 1, so the product cannot pass when the objectness does not.
+            final float objectness = value(outputs, 0, base, row + 4);
+            if (objectness <= threshold) {
+                continue;
+            }
+            int detectedClass = -1;
+            float maxClass = 0;
+            for (int c = 0; c < numClasses; ++c) {
+                final float score = value(outputs, 0, base, row + 5 + c);
+                if (score > maxClass) {
+                    detectedClass = c;
+                    maxClass = score;
+                }
+            }
+            final float confidence = objectness * maxClass;
+            if (detectedClass < 0 || confidence <= threshold) {
+                continue;
+            }
+            candidates.add(
+                    value(outputs, 0, base, row) * inputSize,
+                    value(outputs, 0, base, row + 1) * inputSize,
+                    value(outputs, 0, base, row + 2) * inputSize,
+                    value(outputs, 0, base, row + 3) * inputSize,
+                    confidence, detectedClass, i);
+        }
+    }
+
+    @Override
+    public float maxScore(final ByteBuffer[] outputs) {
+        float max = 0;
+        for (int i = 0; i < numBoxes; ++i) {
+            max = Math.max(max, value(outputs, 0, 0, i * stride + 4));
+        }
+        return max;
+    }
+}
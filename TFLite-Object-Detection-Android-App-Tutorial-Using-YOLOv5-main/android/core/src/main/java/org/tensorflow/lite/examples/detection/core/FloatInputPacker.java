@@ -0,0 +1,112 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packs ARGB pixels into a float RGB input tensor.
+ *
+ * <p>Each row is converted into a reusable float[] through a 256-entry table and written to a
+ * {@link FloatBuffer} view of the tensor with one bulk put. Large images are split into bands of
+ * rows: the calling thread packs the first band while a small persistent pool packs the others,
+ * each into its own disjoint range of the buffer.
+ */
+public final class FloatInputPacker {
+    // Below this, handing a band to another thread costs more than packing it.
+    private static final int MIN_PIXELS_PER_BAND = 128 * 128;
+
+    // The interpreter threads need the remaining cores.
+    private static final int PARALLELISM =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static final ExecutorService POOL = PARALLELISM > 1
+            ? Executors.newFixedThreadPool(PARALLELISM - 1, new PackerThreadFactory())
+            : null;
+
+    private static final ThreadLocal<float[]> ROW = new ThreadLocal<>();
+
+    private final float[] table = new float[256];
+    private final Future<?>[] futures = new Future<?>[Math.max(0, PARALLELISM - 1)];
+
+    /** Channel values are mapped to {@code (v - mean) / std}. */
+    public FloatInputPacker(final float mean, final float std) {
+        for (int v = 0; v < 256; ++v) {
+            table[v] = (v - mean) / std;
+        }
+    }
+
+    /**
+     * Writes {@code width * height} pixels as R, G, B floats to {@code dest}, starting at float
+     * index {@code offset}. The position of {@code dest} is not changed. Not reentrant.
+     */
+    public void pack(final int[] pixels, final int width, final int height,
+                     final FloatBuffer dest, final int offset) {
+        final int bands = Math.max(1, Math.min(PARALLELISM, width * height / MIN_PIXELS_PER_BAND));
+        if (bands == 1) {
+            packRows(pixels, width, dest, offset, 0, height);
+            return;
+        }
+
+        final int rowsPerBand = (height + bands - 1) / bands;
+        for (int b = 1; b < bands; ++b) {
+            final int from = b * rowsPerBand;
+            final int to = Math.min(height, from + rowsPerBand);
+            futures[b - 1] = POOL.submit(() -> packRows(pixels, width, dest, offset, from, to));
+        }
+        packRows(pixels, width, dest, offset, 0, rowsPerBand);
+        try {
+            for (int b = 1; b < bands; ++b) {
+                futures[b - 1].get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted packing input", e);
+        } finally {
+            for (int b = 1; b < bands; ++b) {
+                futures[b - 1] = null;
+            }
+        }
+    }
+
+    private void packRows(final int[] pixels, final int width, final FloatBuffer dest, final int offset,
+                          final int fromRow, final int toRow) {
+        final int rowFloats = width * 3;
+        float[] row = ROW.get();
+        if (row == null || row.length < rowFloats) {
+            row = new float[rowFloats];
+            ROW.set(row);
+        }
+        final float[] table = this.table;
+        // A view of our own, so bands can move their position independently.
+        final FloatBuffer view = dest.duplicate();
+        view.position(offset + fromRow * rowFloats);
+        for (int y = fromRow; y < toRow; ++y) {
+            int p = y * width;
+            for (int k = 0; k < rowFloats; k += 3, ++p) {
+                final int pixelValue = pixels[p];
+                row[k] = table[(pixelValue >> 16) & 0xFF];
+                row[k + 1] = table[(pixelValue >> 8) & 0xFF];
+                row[k + 2] = table[pixelValue & 0xFF];
+            }
+            view.put(row, 0, rowFloats);
+        }
+    }
+
+    private static final class PackerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "input-packer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
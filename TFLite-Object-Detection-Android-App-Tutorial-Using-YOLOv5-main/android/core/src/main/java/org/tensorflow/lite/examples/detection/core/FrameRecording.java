@@ -0,0 +1,142 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Raw camera frames as the app received them, so the whole pipeline can be fed the same footage
+ * again. Frames are streamed, since a recording of a few minutes does not fit in memory.
+ *
+ * <p>File layout, big-endian: the magic {@code YFRC}, a version, the preview width, height and
+ * rotation. Then one record per frame until the end of the file: the timestamp in nanoseconds,
+ * the Y row stride, UV row stride and UV pixel stride, the number of planes and for each its
+ * length and bytes. One plane is an NV21 buffer from the legacy camera API; three are the Y, U
+ * and V planes of a camera2 {@code YUV_420_888} image.
+ */
+public final class FrameRecording {
+    private static final int MAGIC = 0x59465243; // "YFRC"
+    private static final int VERSION = 1;
+
+    private FrameRecording() {
+    }
+
+    /** One frame. Readers reuse it, growing the plane arrays when a frame needs more room. */
+    public static final class Frame {
+        public long timestampNs;
+        public int yRowStride;
+        public int uvRowStride;
+        public int uvPixelStride;
+        public int planeCount;
+        public final byte[][] planes = new byte[3][];
+        public final int[] planeLengths = new int[3];
+    }
+
+    /** Appends frames to a recording. Not thread safe. */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        /** Writes the header. */
+        public Writer(final OutputStream stream, final int width, final int height, final int rotation)
+                throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(rotation);
+        }
+
+        public void write(final Frame frame) throws IOException {
+            out.writeLong(frame.timestampNs);
+            out.writeInt(frame.yRowStride);
+            out.writeInt(frame.uvRowStride);
+            out.writeInt(frame.uvPixelStride);
+            out.writeInt(frame.planeCount);
+            for (int i = 0; i < frame.planeCount; ++i) {
+                out.writeInt(frame.planeLengths[i]);
+                out.write(frame.planes[i], 0, frame.planeLengths[i]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Reads a recording one frame at a time. Not thread safe. */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int width;
+        private final int height;
+        private final int rotation;
+
+        /** Reads the header. */
+        public Reader(final InputStream stream) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a frame recording");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported frame recording version " + version);
+            }
+            width = in.readInt();
+            height = in.readInt();
+            rotation = in.readInt();
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** Rotation of the camera sensor, as passed to {@code onPreviewSizeChosen}. */
+        public int getRotation() {
+            return rotation;
+        }
+
+        /**
+         * Reads the next frame into {@code frame}. Returns false at the end of the recording, which
+         * includes a last frame cut short because the app was stopped while writing it.
+         */
+        public boolean next(final Frame frame) throws IOException {
+            try {
+                frame.timestampNs = in.readLong();
+                frame.yRowStride = in.readInt();
+                frame.uvRowStride = in.readInt();
+                frame.uvPixelStride = in.readInt();
+                frame.planeCount = in.readInt();
+                if (frame.planeCount < 1 || frame.planeCount > frame.planes.length) {
+                    throw new IOException("Corrupt frame with " + frame.planeCount + " planes");
+                }
+                for (int i = 0; i < frame.planeCount; ++i) {
+                    final int length = in.readInt();
+                    if (frame.planes[i] == null || frame.planes[i].length < length) {
+                        frame.planes[i] = new byte[length];
+                    }
+                    in.readFully(frame.planes[i], 0, length);
+                    frame.planeLengths[i] = length;
+                }
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with HDR-style buckets: every power of two range is split into 32
+ * linear sub-buckets, so a percentile is within about 3% of the recorded value from 1us up to about
+ * a minute. Recording is a few atomic increments and never allocates.
+ *
+ * <p>Percentiles are read without stopping writers, so a snapshot taken while frames are being
+ * recorded may be off by the samples that are in flight.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values above 2^26us (about 67s) land in the last bucket.
+  private static final int MAX_EXPONENT = 26;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalUs = new AtomicLong();
+  private final AtomicLong maxUs = new AtomicLong();
+
+  /** Records one sample given in nanoseconds. */
+  public void recordNanos(final long nanos) {
+    final long us = Math.max(0, nanos / 1000);
+    counts.incrementAndGet(bucketOf(us));
+    count.incrementAndGet();
+    totalUs.addAndGet(us);
+    long max = maxUs.get();
+    while (us > max && !maxUs.compareAndSet(max, us)) {
+      max = maxUs.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public float getMeanMs() {
+    final long n = count.get();
+    return n == 0 ? 0f : totalUs.get() / 1000f / n;
+  }
+
+  public float getMaxMs() {
+    return maxUs.get() / 1000f;
+  }
+
+  /** Returns the value at {@code percentile} (0-100) in milliseconds, or 0 if nothing was recorded. */
+  public float getPercentileMs(final double percentile) {
+    final long n = count.get();
+    if (n == 0) {
+      return 0f;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        // Middle of the bucket, but never above the largest sample.
+        final long lower = lowerBoundOf(i);
+        final long upper = lowerBoundOf(i + 1);
+        return Math.min((lower + upper - 1) / 2, maxUs.get()) / 1000f;
+      }
+    }
+    return getMaxMs();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    totalUs.set(0);
+    maxUs.set(0);
+  }
+
+  // Values below SUB_BUCKETS have a bucket each; above that, the top SUB_BUCKET_BITS + 1 bits pick it.
+  static int bucketOf(final long us) {
+    if (us < SUB_BUCKETS) {
+      return (int) us;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(us);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    final int subBucket = (int) (us >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowerBoundOf(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final int subBucket = bucket % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+}
@@ -0,0 +1,117 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the output tensors of a YOLO model into {@link DetectionCandidates}, one subclass per
+ * output layout.
+ *
+ * <p>Decoders read the output buffers in place by absolute index and test the cheapest score
+ * first, so a box below the threshold costs a read or two and decoding allocates nothing.
+ * Several images may lie back to back in the buffers, as in a batched run.
+ */
+public abstract class OutputDecoder {
+    /** [1, N, 5+C]: xywh relative to the input size, objectness and class scores. YOLOv5 export. */
+    public static final String LAYOUT_FLAT = "flat";
+    /** Raw [1, 3, g, g, 5+C] or [1, g, g, 3*(5+C)] logits, one output per grid, decoded with anchors. */
+    public static final String LAYOUT_GRID = "grid";
+    /** [1, 4+C, N]: xywh relative to the input size and class scores, no objectness. YOLOv8 export. */
+    public static final String LAYOUT_TRANSPOSED = "transposed";
+
+    private int[] types;
+    private float[] scales;
+    private int[] zeroPoints;
+    private int[] imageBytes;
+
+    /**
+     * @param layout  one of the LAYOUT_* values, or null to tell from the output tensor shapes
+     * @param anchors anchor sizes for {@link #LAYOUT_GRID}, or null for the YOLOv5 defaults
+     * @param outputs the model's output tensors, in output index order
+     */
+    public static OutputDecoder create(final String layout, final int[] anchors, final TensorSpec[] outputs) {
+        final String actual = layout != null ? layout : detectLayout(outputs);
+        final OutputDecoder decoder;
+        if (actual.equals(LAYOUT_FLAT)) {
+            decoder = new FlatOutputDecoder();
+        } else if (actual.equals(LAYOUT_GRID)) {
+            decoder = new AnchorGridOutputDecoder(anchors != null ? anchors : AnchorGridOutputDecoder.DEFAULT_ANCHORS);
+        } else if (actual.equals(LAYOUT_TRANSPOSED)) {
+            decoder = new TransposedOutputDecoder();
+        } else {
+            throw new IllegalArgumentException("Unknown output layout " + actual);
+        }
+        decoder.configure(outputs);
+        return decoder;
+    }
+
+    private static String detectLayout(final TensorSpec[] outputs) {
+        if (outputs.length > 1) {
+            return LAYOUT_GRID;
+        }
+        final int[] shape = outputs[0].shape;
+        if (shape.length != 3) {
+            return LAYOUT_GRID;
+        }
+        // There are always more boxes than values per box.
+        return shape[1] < shape[2] ? LAYOUT_TRANSPOSED : LAYOUT_FLAT;
+    }
+
+    /** Reads the output shapes and quantization. Must be called again after the input is resized. */
+    public final void configure(final TensorSpec[] outputs) {
+        final int count = outputs.length;
+        final int[][] shapes = new int[count][];
+        types = new int[count];
+        scales = new float[count];
+        zeroPoints = new int[count];
+        imageBytes = new int[count];
+        for (int i = 0; i < count; ++i) {
+            shapes[i] = outputs[i].shape;
+            types[i] = outputs[i].type;
+            scales[i] = outputs[i].scale;
+            zeroPoints[i] = outputs[i].zeroPoint;
+            imageBytes[i] = outputs[i].numBytes / shapes[i][0];
+        }
+        onConfigure(shapes);
+    }
+
+    /** Derives the layout from the output shapes, batch dimension included. */
+    protected abstract void onConfigure(int[][] shapes);
+
+    public int getOutputCount() {
+        return imageBytes.length;
+    }
+
+    /** Size of one image's part of output {@code output}. */
+    public int getImageBytes(final int output) {
+        return imageBytes[output];
+    }
+
+    public abstract int getNumClasses();
+
+    /**
+     * Adds the boxes of image {@code image} that score above {@code threshold} to
+     * {@code candidates}, in input pixels.
+     */
+    public abstract void decode(ByteBuffer[] outputs, int image, int inputSize, float threshold,
+                                DetectionCandidates candidates);
+
+    /** Highest objectness, or class score where there is none, of the first image. */
+    public abstract float maxScore(ByteBuffer[] outputs);
+
+    /** Byte offset of image {@code image} in output {@code output}. */
+    protected final int imageBase(final int output, final int image) {
+        return image * imageBytes[output];
+    }
+
+    /** Returns element {@code index}, counted from {@code base}, of output {@code output}, dequantized. */
+    protected final float value(final ByteBuffer[] outputs, final int output, final int base, final int index) {
+        switch (types[output]) {
+            case TensorSpec.UINT8:
+                return scales[output] * ((outputs[output].get(base + index) & 0xFF) - zeroPoints[output]);
+            case TensorSpec.INT8:
+                return scales[output] * (outputs[output].get(base + index) - zeroPoints[output]);
+            default:
+                return outputs[output].getFloat(base + index * 4);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Raw model output buffers of a sequence of frames, so decoding and NMS can be run on real outputs
+ * away from the device.
+ *
+ * <p>File layout, big-endian: the magic {@code YTRC}, a version, the model input size, the output
+ * layout and anchors the model was decoded with (empty when detected from the shapes or left at the
+ * defaults), the number of outputs and for each its {@link TensorSpec} (type, scale, zero point,
+ * rank, shape, bytes per image). Then one record per frame until the end of the file: the bytes
+ * of every output, in output order, exactly as the interpreter wrote them. Tensor contents are
+ * little-endian, the byte order of every Android ABI.
+ */
+public final class OutputRecording {
+    private static final int MAGIC = 0x59545243; // "YTRC"
+    private static final int VERSION = 2; // 2 added the layout and anchors
+
+    private final int inputSize;
+    private final String layout;
+    private final int[] anchors;
+    private final TensorSpec[] outputs;
+    private final List<ByteBuffer[]> frames;
+
+    /**
+     * @param layout  an {@link OutputDecoder} layout, or null to detect it from the shapes
+     * @param anchors anchors for the grid layout, or null for the defaults
+     * @param frames  per frame, one buffer per output holding a single image
+     */
+    public OutputRecording(final int inputSize, final String layout, final int[] anchors,
+                           final TensorSpec[] outputs, final List<ByteBuffer[]> frames) {
+        this.inputSize = inputSize;
+        this.layout = layout;
+        this.anchors = anchors;
+        this.outputs = outputs;
+        this.frames = frames;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /** Returns a decoder configured the way the recording model was decoded. */
+    public OutputDecoder createDecoder() {
+        return OutputDecoder.create(layout, anchors, outputs);
+    }
+
+    /** Specs of the outputs, with a batch size of one. */
+    public TensorSpec[] getOutputs() {
+        return outputs;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /** Returns the buffers of frame {@code frame}. Decoders read them by absolute index. */
+    public ByteBuffer[] getFrame(final int frame) {
+        return frames.get(frame);
+    }
+
+    public static OutputRecording read(final File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    public static OutputRecording read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an output recording");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported output recording version " + version);
+        }
+        final int inputSize = in.readInt();
+        final String layout = in.readUTF();
+        final int[] anchors = new int[in.readInt()];
+        for (int i = 0; i < anchors.length; ++i) {
+            anchors[i] = in.readInt();
+        }
+        final TensorSpec[] outputs = new TensorSpec[in.readInt()];
+        for (int i = 0; i < outputs.length; ++i) {
+            final int type = in.readInt();
+            final float scale = in.readFloat();
+            final int zeroPoint = in.readInt();
+            final int[] shape = new int[in.readInt()];
+            for (int d = 0; d < shape.length; ++d) {
+                shape[d] = in.readInt();
+            }
+            outputs[i] = new TensorSpec(shape, type, scale, zeroPoint, in.readInt());
+        }
+
+        final List<ByteBuffer[]> frames = new ArrayList<>();
+        // A frame can only start where the file ends cleanly.
+        int first;
+        while ((first = in.read()) != -1) {
+            final ByteBuffer[] frame = new ByteBuffer[outputs.length];
+            for (int i = 0; i < outputs.length; ++i) {
+                final byte[] bytes = new byte[outputs[i].numBytes];
+                int offset = 0;
+                if (i == 0) {
+                    bytes[0] = (byte) first;
+                    offset = 1;
+                }
+                try {
+                    in.readFully(bytes, offset, bytes.length - offset);
+                } catch (EOFException e) {
+                    throw new IOException("Truncated frame " + frames.size(), e);
+                }
+                frame[i] = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+                frame[i].put(bytes);
+            }
+            frames.add(frame);
+        }
+        return new OutputRecording(inputSize, layout.isEmpty() ? null : layout,
+                anchors.length == 0 ? null : anchors, outputs, Collections.unmodifiableList(frames));
+    }
+
+    /** Appends frames to a recording. Not thread safe. */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final TensorSpec[] outputs;
+        private final byte[][] scratch;
+
+        /**
+         * Writes the header. {@code outputs} must describe a batch of one; {@code layout} and
+         * {@code anchors} are as for {@link OutputDecoder#create}.
+         */
+        public Writer(final OutputStream stream, final int inputSize, final String layout, final int[] anchors,
+                      final TensorSpec[] outputs) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(stream));
+            this.outputs = outputs;
+            this.scratch = new byte[outputs.length][];
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(inputSize);
+            out.writeUTF(layout != null ? layout : "");
+            out.writeInt(anchors != null ? anchors.length : 0);
+            if (anchors != null) {
+                for (final int anchor : anchors) {
+                    out.writeInt(anchor);
+                }
+            }
+            out.writeInt(outputs.length);
+            for (int i = 0; i < outputs.length; ++i) {
+                final TensorSpec spec = outputs[i];
+                out.writeInt(spec.type);
+                out.writeFloat(spec.scale);
+                out.writeInt(spec.zeroPoint);
+                out.writeInt(spec.shape.length);
+                for (final int dimension : spec.shape) {
+                    out.writeInt(dimension);
+                }
+                out.writeInt(spec.numBytes);
+                scratch[i] = new byte[spec.numBytes];
+            }
+        }
+
+        /** Writes one frame: the first image of each output buffer. Buffer positions are unchanged. */
+        public void write(final ByteBuffer[] buffers) throws IOException {
+            for (int i = 0; i < outputs.length; ++i) {
+                final ByteBuffer view = buffers[i].duplicate();
+                view.clear();
+                view.get(scratch[i], 0, outputs[i].numBytes);
+                out.write(scratch[i]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.tensorflow.lite.examples.detection.core;
+
+/**
+ * What {@link OutputDecoder} needs to know about an output tensor, independent of the runtime
+ * that produced it.
+ */
+public final class TensorSpec {
+    public static final int FLOAT32 = 0;
+    public static final int UINT8 = 1;
+    public static final int INT8 = 2;
+
+    /** Shape, batch dimension included. */
+    public final int[] shape;
+    /** One of FLOAT32, UINT8 or INT8. */
+    public final int type;
+    /** Quantization of UINT8 and INT8 tensors: real = scale * (value - zeroPoint). */
+    public final float scale;
+    public final int zeroPoint;
+    /** Size of the whole tensor, every image of the batch. */
+    public final int numBytes;
+
+    public TensorSpec(final int[] shape, final int type, final float scale, final int zeroPoint,
+                      final int numBytes) {
+        this.shape = shape;
+        this.type = type;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        this.numBytes = numBytes;
+    }
+
+    /** A float tensor of {@code shape}. */
+    public static TensorSpec ofFloat(final int... shape) {
+        int elements = 1;
+        for (final int dimension : shape) {
+            elements *= dimension;
+        }
+        return new TensorSpec(shape, FLOAT32, 0, 0, elements * 4);
+    }
+}
@@ -0,0 +1,55 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.nio.ByteBuffer;
+
+/** Decodes {@link OutputDecoder#LAYOUT_TRANSPOSED} outputs, where each row holds one value of every box. */
+final class TransposedOutputDecoder extends OutputDecoder {
+    private int numBoxes;
+    private int numClasses;
+
+    @Override
+    protected void onConfigure(final int[][] shapes) {
+        numClasses = shapes[0][1] - 4;
+        numBoxes = shapes[0][2];
+    }
+
+    @Override
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    @Override
+    public void decode(final ByteBuffer[] outputs, final int image, final int inputSize, final float threshold,
+                       final DetectionCandidates candidates) {
+        final int base = imageBase(0, image);
+        for (int i = 0; i < numBoxes; ++i) {
+            int detectedClass = -1;
+            float maxClass = threshold;
+            for (int c = 0; c < numClasses; ++c) {
+                final float score = value(outputs, 0, base, (4 + c) * numBoxes + i);
+                if (score > maxClass) {
+                    detectedClass = c;
+                    maxClass = score;
+                }
+            }
+            if (detectedClass < 0) {
+                continue;
+            }
+            candidates.add(
+                    value(outputs, 0, base, i) * inputSize,
+                    value(outputs, 0, base, numBoxes + i) * inputSize,
+                    value(outputs, 0, base, 2 * numBoxes + i) * inputSize,
+                    value(outputs, 0, base, 3 * numBoxes + i) * inputSize,
+                    maxClass, detectedClass, i);
+        }
+    }
+
+    @Override
+    public float maxScore(final ByteBuffer[] outputs) {
+        float max = 0;
+        for (int i = 4 * numBoxes; i < (4 + numClasses) * numBoxes; ++i) {
+            max = Math.max(max, value(outputs, 0, 0, i));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,246 @@
+package org.tensorflow.lite.examples.detection.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays an {@link OutputRecording} through decoding and NMS the way the app does, checks the
+ * detections of every frame against a golden file and reports the throughput.
+ *
+ * <p>Usage: {@code OutputReplay <recording.ytr> [--golden <file>] [--write-golden] [--threshold 0.3]
+ * [--iou 0.6] [--tolerance 0.5] [--runs 5]}. The golden file defaults to the recording with a
+ * {@code .golden.txt} suffix; {@code --write-golden} (re)writes it from this run instead of
+ * comparing. It holds one detection per line: frame, class, score and the left, top, right and
+ * bottom edges in input pixels. A detection matches when the class is the same and the score and
+ * every edge are within the tolerance, in pixels for the edges and a hundredth of that for the
+ * score. Exits with status 1 when a frame does not match.
+ */
+public final class OutputReplay {
+    private static final int FIELDS = 6; // class, score, left, top, right, bottom
+
+    private OutputReplay() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: OutputReplay <recording.ytr> [--golden <file>] [--write-golden]"
+                    + " [--threshold 0.3] [--iou 0.6] [--tolerance 0.5] [--runs 5]");
+            System.exit(2);
+        }
+        File golden = new File(args[0] + ".golden.txt");
+        boolean writeGolden = false;
+        float threshold = 0.3f;
+        float iou = 0.6f;
+        float tolerance = 0.5f;
+        int runs = 5;
+        for (int i = 1; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--golden":
+                    golden = new File(args[++i]);
+                    break;
+                case "--write-golden":
+                    writeGolden = true;
+                    break;
+                case "--threshold":
+                    threshold = Float.parseFloat(args[++i]);
+                    break;
+                case "--iou":
+                    iou = Float.parseFloat(args[++i]);
+                    break;
+                case "--tolerance":
+                    tolerance = Float.parseFloat(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        final OutputRecording recording = OutputRecording.read(new File(args[0]));
+        final OutputDecoder decoder = recording.createDecoder();
+        final DetectionCandidates candidates = new DetectionCandidates();
+        final List<float[]> detections = new ArrayList<>(recording.getFrameCount());
+        int total = 0;
+        for (int frame = 0; frame < recording.getFrameCount(); ++frame) {
+            final float[] frameDetections = detect(recording, frame, decoder, threshold, iou, candidates);
+            detections.add(frameDetections);
+            total += frameDetections.length / FIELDS;
+        }
+        System.out.printf(Locale.US, "%s: %d frames at %dpx, %d classes, %d detections%n", args[0],
+                recording.getFrameCount(), recording.getInputSize(), decoder.getNumClasses(), total);
+
+        int mismatches = 0;
+        if (writeGolden) {
+            writeGolden(golden, detections);
+            System.out.println("Wrote " + golden);
+        } else if (golden.isFile()) {
+            final List<float[]> expected = readGolden(golden, recording.getFrameCount());
+            for (int frame = 0; frame < detections.size(); ++frame) {
+                if (!matches(expected.get(frame), detections.get(frame), tolerance)) {
+                    ++mismatches;
+                    System.out.printf(Locale.US, "frame %d: expected %s%n         got      %s%n", frame,
+                            format(expected.get(frame)), format(detections.get(frame)));
+                }
+            }
+            System.out.printf(Locale.US, "%d of %d frames match %s%n",
+                    detections.size() - mismatches, detections.size(), golden);
+        } else {
+            System.out.println("No golden file at " + golden + "; pass --write-golden to create it");
+        }
+
+        benchmark(recording, decoder, threshold, iou, candidates, runs);
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Decodes and suppresses one frame, with boxes clipped to the input like the app clips them to
+     * the crop. Returns {@link #FIELDS} values per kept detection, best first.
+     */
+    static float[] detect(final OutputRecording recording, final int frame, final OutputDecoder decoder,
+                          final float threshold, final float iou, final DetectionCandidates candidates) {
+        final int inputSize = recording.getInputSize();
+        candidates.clear();
+        decoder.decode(recording.getFrame(frame), 0, inputSize, threshold, candidates);
+        final int count = candidates.nms(iou);
+        final float[] detections = new float[count * FIELDS];
+        for (int k = 0; k < count; ++k) {
+            final int i = candidates.kept(k);
+            final int d = k * FIELDS;
+            detections[d] = candidates.detectedClass(i);
+            detections[d + 1] = candidates.score(i);
+            detections[d + 2] = Math.max(0, candidates.left(i));
+            detections[d + 3] = Math.max(0, candidates.top(i));
+            detections[d + 4] = Math.min(inputSize - 1, candidates.right(i));
+            detections[d + 5] = Math.min(inputSize - 1, candidates.bottom(i));
+        }
+        return detections;
+    }
+
+    // Every expected detection needs its own match; the order may differ between equal scores.
+    static boolean matches(final float[] expected, final float[] actual, final float tolerance) {
+        if (expected.length != actual.length) {
+            return false;
+        }
+        final boolean[] used = new boolean[actual.length / FIELDS];
+        for (int e = 0; e < expected.length; e += FIELDS) {
+            boolean found = false;
+            for (int a = 0; a < actual.length && !found; a += FIELDS) {
+                if (used[a / FIELDS] || expected[e] != actual[a]
+                        || Math.abs(expected[e + 1] - actual[a + 1]) > tolerance / 100) {
+                    continue;
+                }
+                found = true;
+                for (int f = 2; f < FIELDS; ++f) {
+                    found &= Math.abs(expected[e + f] - actual[a + f]) <= tolerance;
+                }
+                used[a / FIELDS] = found;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Times decode and NMS separately over every frame, after one untimed pass to warm up the JIT.
+    private static void benchmark(final OutputRecording recording, final OutputDecoder decoder,
+                                  final float threshold, final float iou,
+                                  final DetectionCandidates candidates, final int runs) {
+        final int frames = recording.getFrameCount();
+        if (frames == 0 || runs <= 0) {
+            return;
+        }
+        final LatencyHistogram decodeNs = new LatencyHistogram();
+        final LatencyHistogram nmsNs = new LatencyHistogram();
+        for (int run = -1; run < runs; ++run) {
+            for (int frame = 0; frame < frames; ++frame) {
+                candidates.clear();
+                final long start = System.nanoTime();
+                decoder.decode(recording.getFrame(frame), 0, recording.getInputSize(), threshold, candidates);
+                final long decoded = System.nanoTime();
+                candidates.nms(iou);
+                final long end = System.nanoTime();
+                if (run >= 0) {
+                    decodeNs.recordNanos(decoded - start);
+                    nmsNs.recordNanos(end - decoded);
+                }
+            }
+        }
+        final double meanMs = decodeNs.getMeanMs() + nmsNs.getMeanMs();
+        System.out.printf(Locale.US, "%d runs: %.0f frames/s, %.3f ms per frame%n", runs, 1000 / meanMs, meanMs);
+        System.out.printf(Locale.US, "decode    p50 %.3f p95 %.3f p99 %.3f ms%n",
+                decodeNs.getPercentileMs(50), decodeNs.getPercentileMs(95), decodeNs.getPercentileMs(99));
+        System.out.printf(Locale.US, "nms       p50 %.3f p95 %.3f p99 %.3f ms%n",
+                nmsNs.getPercentileMs(50), nmsNs.getPercentileMs(95), nmsNs.getPercentileMs(99));
+    }
+
+    private static void writeGolden(final File file, final List<float[]> detections) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            for (int frame = 0; frame < detections.size(); ++frame) {
+                final float[] values = detections.get(frame);
+                for (int d = 0; d < values.length; d += FIELDS) {
+                    out.printf(Locale.US, "%d %d %.5f %.2f %.2f %.2f %.2f%n", frame, (int) values[d],
+                            values[d + 1], values[d + 2], values[d + 3], values[d + 4], values[d + 5]);
+                }
+            }
+        }
+    }
+
+    private static List<float[]> readGolden(final File file, final int frames) throws IOException {
+        final List<List<Float>> values = new ArrayList<>(frames);
+        for (int frame = 0; frame < frames; ++frame) {
+            values.add(new ArrayList<Float>());
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final String[] fields = line.trim().split("\\s+");
+                if (fields.length != FIELDS + 1) {
+                    throw new IOException("Malformed golden line: " + line);
+                }
+                final int frame = Integer.parseInt(fields[0]);
+                if (frame < 0 || frame >= frames) {
+                    throw new IOException("Golden frame " + frame + " is not in the recording");
+                }
+                for (int f = 1; f < fields.length; ++f) {
+                    values.get(frame).add(Float.parseFloat(fields[f]));
+                }
+            }
+        }
+        final List<float[]> detections = new ArrayList<>(frames);
+        for (final List<Float> frameValues : values) {
+            final float[] array = new float[frameValues.size()];
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = frameValues.get(i);
+            }
+            detections.add(array);
+        }
+        return detections;
+    }
+
+    private static String format(final float[] detections) {
+        final StringBuilder text = new StringBuilder();
+        for (int d = 0; d < detections.length; d += FIELDS) {
+            text.append(String.format(Locale.US, "[%d %.3f %s] ", (int) detections[d], detections[d + 1],
+                    Arrays.toString(Arrays.copyOfRange(detections, d + 2, d + FIELDS))));
+        }
+        return text.length() == 0 ? "nothing" : text.toString().trim();
+    }
+}